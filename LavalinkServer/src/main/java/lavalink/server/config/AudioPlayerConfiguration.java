@@ -10,6 +10,9 @@ import com.sedmelluq.discord.lavaplayer.source.soundcloud.SoundCloudAudioSourceM
 import com.sedmelluq.discord.lavaplayer.source.twitch.TwitchStreamAudioSourceManager;
 import com.sedmelluq.discord.lavaplayer.source.vimeo.VimeoAudioSourceManager;
 import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.track.playback.NonAllocatingAudioFrameBuffer;
+import lavalink.server.player.HttpRangeCache;
+import lavalink.server.player.LocalTrackIndex;
 import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
 
@@ -22,7 +25,10 @@ import java.util.function.Supplier;
 public class AudioPlayerConfiguration {
 
     @Bean
-    public Supplier<AudioPlayerManager> audioPlayerManagerSupplier(AudioSourcesConfig sources, ServerConfig serverConfig) {
+    public Supplier<AudioPlayerManager> audioPlayerManagerSupplier(AudioSourcesConfig sources,
+                                                                   ServerConfig serverConfig,
+                                                                   HttpRangeCache httpRangeCache,
+                                                                   LocalTrackIndex localTrackIndex) {
         return () -> {
             AudioPlayerManager audioPlayerManager = new DefaultAudioPlayerManager();
 
@@ -35,18 +41,39 @@ public class AudioPlayerConfiguration {
                 Integer playlistLoadLimit = serverConfig.getYoutubePlaylistLoadLimit();
 
                 if (playlistLoadLimit != null) youtube.setPlaylistPageCount(playlistLoadLimit);
+                if (httpRangeCache.isEnabled()) youtube.configureBuilder(httpRangeCache::configure);
                 audioPlayerManager.registerSourceManager(youtube);
             }
             if (sources.isBandcamp()) audioPlayerManager.registerSourceManager(new BandcampAudioSourceManager());
-            if (sources.isSoundcloud()) audioPlayerManager.registerSourceManager(new SoundCloudAudioSourceManager(serverConfig.isSoundcloudSearchEnabled()));
+            if (sources.isSoundcloud()) {
+                SoundCloudAudioSourceManager soundcloud =
+                        new SoundCloudAudioSourceManager(serverConfig.isSoundcloudSearchEnabled());
+                if (httpRangeCache.isEnabled()) soundcloud.configureBuilder(httpRangeCache::configure);
+                audioPlayerManager.registerSourceManager(soundcloud);
+            }
             if (sources.isTwitch()) audioPlayerManager.registerSourceManager(new TwitchStreamAudioSourceManager());
             if (sources.isVimeo()) audioPlayerManager.registerSourceManager(new VimeoAudioSourceManager());
             if (sources.isMixer()) audioPlayerManager.registerSourceManager(new BeamAudioSourceManager());
-            if (sources.isHttp()) audioPlayerManager.registerSourceManager(new HttpAudioSourceManager());
-            if (sources.isLocal()) audioPlayerManager.registerSourceManager(new LocalAudioSourceManager());
+            if (sources.isHttp()) {
+                HttpAudioSourceManager http = new HttpAudioSourceManager();
+                if (httpRangeCache.isEnabled()) http.configureBuilder(httpRangeCache::configure);
+                audioPlayerManager.registerSourceManager(http);
+            }
+            if (sources.isLocal()) {
+                audioPlayerManager.registerSourceManager(localTrackIndex.isEnabled()
+                        ? localTrackIndex.createSourceManager()
+                        : new LocalAudioSourceManager());
+            }
 
             audioPlayerManager.getConfiguration().setFilterHotSwapEnabled(true);
 
+            // Saves an allocation per frame, which adds up with thousands of players
+            if (serverConfig.isNonAllocatingFrameBuffer()) {
+                audioPlayerManager.getConfiguration().setFrameBufferFactory(NonAllocatingAudioFrameBuffer::new);
+            }
+            Integer frameBufferDuration = serverConfig.getFrameBufferDurationMs();
+            if (frameBufferDuration != null) audioPlayerManager.setFrameBufferDuration(frameBufferDuration);
+
             return audioPlayerManager;
         };
     }
@@ -0,0 +1,254 @@
+package lavalink.server.config;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@ConfigurationProperties(prefix = "lavalink.server.cache")
+@Component
+public class CacheConfig {
+
+    private LoadResults loadResults = new LoadResults();
+    private DecodedTracks decodedTracks = new DecodedTracks();
+    private OpusFrames opusFrames = new OpusFrames();
+    private HttpRanges httpRanges = new HttpRanges();
+
+    public LoadResults getLoadResults() {
+        return loadResults;
+    }
+
+    public void setLoadResults(LoadResults loadResults) {
+        this.loadResults = loadResults;
+    }
+
+    public DecodedTracks getDecodedTracks() {
+        return decodedTracks;
+    }
+
+    public void setDecodedTracks(DecodedTracks decodedTracks) {
+        this.decodedTracks = decodedTracks;
+    }
+
+    public OpusFrames getOpusFrames() {
+        return opusFrames;
+    }
+
+    public void setOpusFrames(OpusFrames opusFrames) {
+        this.opusFrames = opusFrames;
+    }
+
+    public HttpRanges getHttpRanges() {
+        return httpRanges;
+    }
+
+    public void setHttpRanges(HttpRanges httpRanges) {
+        this.httpRanges = httpRanges;
+    }
+
+    /**
+     * Caching of encoded /loadtracks responses. Each result type has its own time to live, a value of 0 disables
+     * caching of that type.
+     */
+    public static class LoadResults {
+
+        private boolean enabled = false;
+        private int maxSize = 1000;
+        private long trackTtlMs = 60 * 60 * 1000;
+        private long playlistTtlMs = 30 * 60 * 1000;
+        private long searchTtlMs = 10 * 60 * 1000;
+        private long noMatchesTtlMs = 60 * 1000;
+        private long loadFailedTtlMs = 10 * 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public long getTrackTtlMs() {
+            return trackTtlMs;
+        }
+
+        public void setTrackTtlMs(long trackTtlMs) {
+            this.trackTtlMs = trackTtlMs;
+        }
+
+        public long getPlaylistTtlMs() {
+            return playlistTtlMs;
+        }
+
+        public void setPlaylistTtlMs(long playlistTtlMs) {
+            this.playlistTtlMs = playlistTtlMs;
+        }
+
+        public long getSearchTtlMs() {
+            return searchTtlMs;
+        }
+
+        public void setSearchTtlMs(long searchTtlMs) {
+            this.searchTtlMs = searchTtlMs;
+        }
+
+        public long getNoMatchesTtlMs() {
+            return noMatchesTtlMs;
+        }
+
+        public void setNoMatchesTtlMs(long noMatchesTtlMs) {
+            this.noMatchesTtlMs = noMatchesTtlMs;
+        }
+
+        public long getLoadFailedTtlMs() {
+            return loadFailedTtlMs;
+        }
+
+        public void setLoadFailedTtlMs(long loadFailedTtlMs) {
+            this.loadFailedTtlMs = loadFailedTtlMs;
+        }
+    }
+
+    /**
+     * Caching of tracks decoded from their base64 representation, as sent with the play op and to the decode
+     * endpoints.
+     */
+    public static class DecodedTracks {
+
+        private boolean enabled = true;
+        private int maxSize = 10000;
+        private long ttlMs = 30 * 60 * 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public long getTtlMs() {
+            return ttlMs;
+        }
+
+        public void setTtlMs(long ttlMs) {
+            this.ttlMs = ttlMs;
+        }
+    }
+
+    /**
+     * Caching of the encoded opus frames of tracks that were played to the end, so that the next play of the same
+     * track with the same volume and equalizer doesn't have to load and encode it again. Entries that don't fit into
+     * memory are spilled to the directory, if one is set. The frames of tracks that are still being played count
+     * towards their own limit, recording stops for tracks that don't fit.
+     */
+    public static class OpusFrames {
+
+        private boolean enabled = false;
+        private long maxMemoryBytes = 256 * 1024 * 1024;
+        private long maxRecordingBytes = 64 * 1024 * 1024;
+        @Nullable
+        private String directory = null;
+        private long maxDiskBytes = 4L * 1024 * 1024 * 1024;
+        private long maxTrackDurationMs = 15 * 60 * 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaxMemoryBytes() {
+            return maxMemoryBytes;
+        }
+
+        public void setMaxMemoryBytes(long maxMemoryBytes) {
+            this.maxMemoryBytes = maxMemoryBytes;
+        }
+
+        public long getMaxRecordingBytes() {
+            return maxRecordingBytes;
+        }
+
+        public void setMaxRecordingBytes(long maxRecordingBytes) {
+            this.maxRecordingBytes = maxRecordingBytes;
+        }
+
+        @Nullable
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(@Nullable String directory) {
+            this.directory = directory;
+        }
+
+        public long getMaxDiskBytes() {
+            return maxDiskBytes;
+        }
+
+        public void setMaxDiskBytes(long maxDiskBytes) {
+            this.maxDiskBytes = maxDiskBytes;
+        }
+
+        public long getMaxTrackDurationMs() {
+            return maxTrackDurationMs;
+        }
+
+        public void setMaxTrackDurationMs(long maxTrackDurationMs) {
+            this.maxTrackDurationMs = maxTrackDurationMs;
+        }
+    }
+
+    /**
+     * Caching of the audio files that HTTP, SoundCloud and YouTube tracks download, so that replays and seeks back
+     * are read from disk rather than downloaded again.
+     */
+    public static class HttpRanges {
+
+        private boolean enabled = false;
+        private String directory = "http-cache";
+        private long maxDiskBytes = 2L * 1024 * 1024 * 1024;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public long getMaxDiskBytes() {
+            return maxDiskBytes;
+        }
+
+        public void setMaxDiskBytes(long maxDiskBytes) {
+            this.maxDiskBytes = maxDiskBytes;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package lavalink.server.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Directories of local audio files that are indexed in the background, so that loading their tracks doesn't have to
+ * probe the files. Only used if the local source is enabled.
+ */
+@ConfigurationProperties(prefix = "lavalink.server.local-index")
+@Component
+public class LocalIndexConfig {
+
+    private List<String> directories = new ArrayList<>();
+    private long rescanIntervalMs = 10 * 60 * 1000;
+    private boolean memoryMapped = true;
+
+    public List<String> getDirectories() {
+        return directories;
+    }
+
+    public void setDirectories(List<String> directories) {
+        this.directories = directories;
+    }
+
+    public long getRescanIntervalMs() {
+        return rescanIntervalMs;
+    }
+
+    public void setRescanIntervalMs(long rescanIntervalMs) {
+        this.rescanIntervalMs = rescanIntervalMs;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+}
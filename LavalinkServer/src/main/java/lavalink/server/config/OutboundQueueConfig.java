@@ -0,0 +1,50 @@
+package lavalink.server.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits of the queue of messages waiting to be sent to a websocket client. Past the soft limits player updates are
+ * dropped, past the hard limits the client is disconnected.
+ */
+@ConfigurationProperties(prefix = "lavalink.server.outbound-queue")
+@Component
+public class OutboundQueueConfig {
+
+    private int maxMessages = 1000;
+    private int maxBytes = 4 * 1024 * 1024;
+    private int hardMaxMessages = 5000;
+    private int hardMaxBytes = 16 * 1024 * 1024;
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public void setMaxMessages(int maxMessages) {
+        this.maxMessages = maxMessages;
+    }
+
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public int getHardMaxMessages() {
+        return hardMaxMessages;
+    }
+
+    public void setHardMaxMessages(int hardMaxMessages) {
+        this.hardMaxMessages = hardMaxMessages;
+    }
+
+    public int getHardMaxBytes() {
+        return hardMaxBytes;
+    }
+
+    public void setHardMaxBytes(int hardMaxBytes) {
+        this.hardMaxBytes = hardMaxBytes;
+    }
+}
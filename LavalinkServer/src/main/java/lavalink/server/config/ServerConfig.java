@@ -40,6 +40,18 @@ public class ServerConfig {
     private boolean gcWarnings = true;
     private boolean youtubeSearchEnabled = true;
     private boolean soundcloudSearchEnabled = true;
+    @Nullable
+    private Integer decodeTracksParallelism;
+    @Nullable
+    private Integer loadTracksBatchParallelism;
+    @Nullable
+    private Integer playerManagerPoolSize;
+    @Nullable
+    private Integer resumeBufferMaxBytes;
+    private boolean nonAllocatingFrameBuffer = false;
+    @Nullable
+    private Integer frameBufferDurationMs;
+    private boolean sharedStreams = false;
 
     public String getPassword() {
         return password;
@@ -102,4 +114,89 @@ public class ServerConfig {
     public void setSoundcloudSearchEnabled(boolean soundcloudSearchEnabled) {
         this.soundcloudSearchEnabled = soundcloudSearchEnabled;
     }
+
+    /**
+     * @return the number of threads decoding tracks of a streamed /decodetracks request, null to use one per core
+     */
+    @Nullable
+    public Integer getDecodeTracksParallelism() {
+        return decodeTracksParallelism;
+    }
+
+    public void setDecodeTracksParallelism(@Nullable Integer decodeTracksParallelism) {
+        this.decodeTracksParallelism = decodeTracksParallelism;
+    }
+
+    /**
+     * @return the number of identifiers of a batched /loadtracks request that are loaded at the same time, null for the
+     * default of 8
+     */
+    @Nullable
+    public Integer getLoadTracksBatchParallelism() {
+        return loadTracksBatchParallelism;
+    }
+
+    public void setLoadTracksBatchParallelism(@Nullable Integer loadTracksBatchParallelism) {
+        this.loadTracksBatchParallelism = loadTracksBatchParallelism;
+    }
+
+    /**
+     * @return the number of audio player managers shared by all websocket connections, null or 0 to give each
+     * connection its own manager
+     */
+    @Nullable
+    public Integer getPlayerManagerPoolSize() {
+        return playerManagerPoolSize;
+    }
+
+    public void setPlayerManagerPoolSize(@Nullable Integer playerManagerPoolSize) {
+        this.playerManagerPoolSize = playerManagerPoolSize;
+    }
+
+    /**
+     * @return the encoded size of the events kept for a paused session, after which the oldest ones are dropped
+     */
+    @Nullable
+    public Integer getResumeBufferMaxBytes() {
+        return resumeBufferMaxBytes;
+    }
+
+    public void setResumeBufferMaxBytes(@Nullable Integer resumeBufferMaxBytes) {
+        this.resumeBufferMaxBytes = resumeBufferMaxBytes;
+    }
+
+    /**
+     * @return whether the frames a track has loaded ahead are kept in one preallocated ring buffer per track, instead
+     * of an object per frame
+     */
+    public boolean isNonAllocatingFrameBuffer() {
+        return nonAllocatingFrameBuffer;
+    }
+
+    public void setNonAllocatingFrameBuffer(boolean nonAllocatingFrameBuffer) {
+        this.nonAllocatingFrameBuffer = nonAllocatingFrameBuffer;
+    }
+
+    /**
+     * @return how much audio a track loads ahead, null for the lavaplayer default
+     */
+    @Nullable
+    public Integer getFrameBufferDurationMs() {
+        return frameBufferDurationMs;
+    }
+
+    public void setFrameBufferDurationMs(@Nullable Integer frameBufferDurationMs) {
+        this.frameBufferDurationMs = frameBufferDurationMs;
+    }
+
+    /**
+     * @return whether players of the same live stream share a single upstream player
+     */
+    public boolean isSharedStreams() {
+        return sharedStreams;
+    }
+
+    public void setSharedStreams(boolean sharedStreams) {
+        this.sharedStreams = sharedStreams;
+    }
 }
@@ -0,0 +1,123 @@
+package lavalink.server.io;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Translates websocket messages between their JSON representation and CBOR, for sessions using
+ * {@link WireProtocol#CBOR}. The message structure is exactly the same for both protocols, only the encoding differs,
+ * so every op and event is supported without having to maintain a second schema.
+ */
+public class CborCodec {
+
+    private static final CBORFactory CBOR_FACTORY = new CBORFactory();
+
+    public static byte[] encode(JSONObject json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        try (JsonGenerator gen = CBOR_FACTORY.createGenerator(out)) {
+            writeValue(gen, json);
+        }
+        return out.toByteArray();
+    }
+
+    public static JSONObject decode(byte[] bytes) throws IOException {
+        return decode(bytes, 0, bytes.length);
+    }
+
+    public static JSONObject decode(byte[] bytes, int offset, int length) throws IOException {
+        try (JsonParser parser = CBOR_FACTORY.createParser(bytes, offset, length)) {
+            JsonToken token = parser.nextToken();
+            if (token != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a CBOR map, got " + token);
+            }
+            return (JSONObject) readValue(parser, token);
+        }
+    }
+
+    static void writeValue(JsonGenerator gen, @Nullable Object value) throws IOException {
+        if (value == null || value == JSONObject.NULL) {
+            gen.writeNull();
+        } else if (value instanceof JSONObject) {
+            JSONObject json = (JSONObject) value;
+            gen.writeStartObject();
+            for (String key : json.keySet()) {
+                gen.writeFieldName(key);
+                writeValue(gen, json.opt(key));
+            }
+            gen.writeEndObject();
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            gen.writeStartArray();
+            for (int i = 0; i < array.length(); i++) {
+                writeValue(gen, array.opt(i));
+            }
+            gen.writeEndArray();
+        } else if (value instanceof String) {
+            gen.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            gen.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            gen.writeNumber(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            gen.writeNumber((Long) value);
+        } else if (value instanceof Float) {
+            gen.writeNumber((Float) value);
+        } else if (value instanceof Double) {
+            gen.writeNumber((Double) value);
+        } else if (value instanceof BigInteger) {
+            gen.writeNumber((BigInteger) value);
+        } else if (value instanceof BigDecimal) {
+            gen.writeNumber((BigDecimal) value);
+        } else {
+            // Same as org.json, which writes unknown values like enums as their string representation
+            gen.writeString(value.toString());
+        }
+    }
+
+    private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        if (token == null) throw new IOException("Unexpected end of CBOR input");
+
+        switch (token) {
+            case START_OBJECT:
+                JSONObject json = new JSONObject();
+                JsonToken field;
+                while ((field = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                    String key = parser.getCurrentName();
+                    json.put(key, readValue(parser, parser.nextToken()));
+                }
+                if (field != JsonToken.END_OBJECT) throw new IOException("Truncated CBOR map");
+                return json;
+            case START_ARRAY:
+                JSONArray array = new JSONArray();
+                JsonToken next;
+                while ((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    array.put(readValue(parser, next));
+                }
+                return array;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return true;
+            case VALUE_FALSE:
+                return false;
+            case VALUE_NULL:
+                return JSONObject.NULL;
+            default:
+                throw new IOException("Unsupported CBOR value " + token);
+        }
+    }
+}
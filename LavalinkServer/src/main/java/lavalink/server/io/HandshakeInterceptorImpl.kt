@@ -21,7 +21,7 @@ constructor(private val serverConfig: ServerConfig, private val socketServer: So
     }
 
     /**
-     * Checks credentials and sets the Lavalink version header
+     * Checks credentials and the requested protocol, and sets the Lavalink version header
      *
      * @return true if authenticated
      */
@@ -37,6 +37,15 @@ constructor(private val serverConfig: ServerConfig, private val socketServer: So
             response.setStatusCode(HttpStatus.UNAUTHORIZED)
         }
 
+        val requestedProtocol = request.headers.getFirst(WireProtocol.HEADER)
+        val protocol = WireProtocol.fromHeader(requestedProtocol)
+        if (protocol == null) {
+            log.error("Unsupported protocol $requestedProtocol requested from " + request.remoteAddress)
+            response.setStatusCode(HttpStatus.BAD_REQUEST)
+            return false
+        }
+        response.headers.add(WireProtocol.HEADER, protocol.headerValue)
+
         val resumeKey = request.headers.getFirst("Resume-Key")
         val resuming = resumeKey != null && socketServer.canResume(resumeKey)
         response.headers.add("Session-Resumed", resuming.toString())
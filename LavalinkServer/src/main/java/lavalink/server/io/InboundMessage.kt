@@ -0,0 +1,183 @@
+package lavalink.server.io
+
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory
+
+/**
+ * A message received from a client, read in a single pass with a streaming parser instead of being built into an
+ * org.json tree first. Fields are decoded straight into their types as they are encountered, so the order of the
+ * fields doesn't matter, and fields no op knows about are skipped without being decoded.
+ *
+ * Which fields are set depends on the op, see [required] for fields an op can't do without. Null values are treated
+ * like missing fields, values that can't be converted to the type of their field are rejected.
+ */
+class InboundMessage private constructor() {
+
+    companion object {
+        private val jsonFactory = JsonFactory()
+        private val cborFactory = CBORFactory()
+
+        fun fromJson(payload: String) = parse(jsonFactory.createParser(payload))
+
+        fun fromCbor(payload: ByteArray, offset: Int, length: Int) =
+                parse(cborFactory.createParser(payload, offset, length))
+
+        private fun parse(parser: JsonParser): InboundMessage = parser.use {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw IllegalArgumentException("Expected an object")
+
+            val message = InboundMessage()
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                val name = parser.currentName
+                if (parser.nextToken() == JsonToken.VALUE_NULL) continue
+
+                message.readField(name, parser)
+            }
+            message
+        }
+    }
+
+    var op: String? = null; private set
+    var guildId: String? = null; private set
+
+    // play
+    var track: String? = null; private set
+    var startTime: Long? = null; private set
+    var noReplace: Boolean? = null; private set
+    // play, pause
+    var pause: Boolean? = null; private set
+    // play, volume
+    var volume: Int? = null; private set
+
+    // seek
+    var position: Long? = null; private set
+
+    // voiceUpdate
+    var sessionId: String? = null; private set
+    var hasEvent = false; private set
+    var endpoint: String? = null; private set
+    var token: String? = null; private set
+
+    // equalizer
+    var bands: List<Band>? = null; private set
+
+    // configureResuming
+    var key: String? = null; private set
+    var timeout: Long? = null; private set
+    var batchReplay: Boolean? = null; private set
+
+    // configurePlayerUpdates
+    var batch: Boolean? = null; private set
+    var adaptive: Boolean? = null; private set
+    var interval: Long? = null; private set
+
+    fun <T> required(value: T?, name: String): T =
+            value ?: throw IllegalArgumentException("$op is missing required field $name")
+
+    private fun readField(name: String, parser: JsonParser) {
+        when (name) {
+            // @formatter:off
+            "op"          -> op = readString(parser, "op")
+            "guildId"     -> guildId = readString(parser, "guildId")
+            "track"       -> track = readString(parser, "track")
+            "startTime"   -> startTime = readLong(parser, "startTime")
+            "noReplace"   -> noReplace = readBoolean(parser, "noReplace")
+            "pause"       -> pause = readBoolean(parser, "pause")
+            "volume"      -> volume = readInt(parser, "volume")
+            "position"    -> position = readLong(parser, "position")
+            "sessionId"   -> sessionId = readString(parser, "sessionId")
+            "event"       -> readEvent(parser)
+            "bands"       -> bands = readBands(parser)
+            "key"         -> key = readString(parser, "key")
+            "timeout"     -> timeout = readLong(parser, "timeout")
+            "batchReplay" -> batchReplay = readBoolean(parser, "batchReplay")
+            "batch"       -> batch = readBoolean(parser, "batch")
+            "adaptive"    -> adaptive = readBoolean(parser, "adaptive")
+            "interval"    -> interval = readLong(parser, "interval")
+            else          -> parser.skipChildren()
+            // @formatter:on
+        }
+    }
+
+    private fun readEvent(parser: JsonParser) {
+        if (parser.currentToken != JsonToken.START_OBJECT) throw IllegalArgumentException("event must be an object")
+        hasEvent = true
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val name = parser.currentName
+            if (parser.nextToken() == JsonToken.VALUE_NULL) continue
+
+            when (name) {
+                "endpoint" -> endpoint = readString(parser, "endpoint")
+                "token" -> token = readString(parser, "token")
+                else -> parser.skipChildren()
+            }
+        }
+    }
+
+    private fun readBands(parser: JsonParser): List<Band> {
+        if (parser.currentToken != JsonToken.START_ARRAY) throw IllegalArgumentException("bands must be an array")
+
+        val bands = ArrayList<Band>(15)
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            var band: Int? = null
+            var gain: Float? = null
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                val name = parser.currentName
+                if (parser.nextToken() == JsonToken.VALUE_NULL) continue
+
+                when (name) {
+                    "band" -> band = readInt(parser, "band")
+                    "gain" -> gain = readDouble(parser, "gain").toFloat()
+                    else -> parser.skipChildren()
+                }
+            }
+            bands.add(Band(required(band, "band"), required(gain, "gain")))
+        }
+        return bands
+    }
+
+    private fun readString(parser: JsonParser, name: String): String {
+        if (!parser.currentToken.isScalarValue) throw invalid(parser, name, "a string")
+        return parser.text
+    }
+
+    private fun readLong(parser: JsonParser, name: String): Long = when (parser.currentToken) {
+        JsonToken.VALUE_NUMBER_INT -> parser.longValue
+        JsonToken.VALUE_NUMBER_FLOAT -> parser.doubleValue.toLong()
+        JsonToken.VALUE_STRING -> parser.text.trim().toLongOrNull()
+        else -> null
+    } ?: throw invalid(parser, name, "an integer")
+
+    private fun readInt(parser: JsonParser, name: String): Int {
+        val value = readLong(parser, name)
+        if (value < Int.MIN_VALUE || value > Int.MAX_VALUE) throw invalid(parser, name, "an integer")
+        return value.toInt()
+    }
+
+    private fun readDouble(parser: JsonParser, name: String): Double = when (parser.currentToken) {
+        JsonToken.VALUE_NUMBER_INT, JsonToken.VALUE_NUMBER_FLOAT -> parser.doubleValue
+        JsonToken.VALUE_STRING -> parser.text.trim().toDoubleOrNull()
+        else -> null
+    } ?: throw invalid(parser, name, "a number")
+
+    private fun readBoolean(parser: JsonParser, name: String): Boolean = when (parser.currentToken) {
+        JsonToken.VALUE_TRUE -> true
+        JsonToken.VALUE_FALSE -> false
+        JsonToken.VALUE_STRING -> when (parser.text.trim().toLowerCase()) {
+            "true" -> true
+            "false" -> false
+            else -> null
+        }
+        else -> null
+    } ?: throw invalid(parser, name, "a boolean")
+
+    private fun invalid(parser: JsonParser, name: String, type: String): IllegalArgumentException {
+        // Leave the parser after the value, objects and arrays would otherwise be read as the following fields
+        if (parser.currentToken.isStructStart) parser.skipChildren()
+        return IllegalArgumentException("$name must be $type")
+    }
+
+    data class Band(val band: Int, val gain: Float)
+}
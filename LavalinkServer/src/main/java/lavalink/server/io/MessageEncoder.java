@@ -0,0 +1,117 @@
+package lavalink.server.io;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes {@link OutboundMessage}s straight into the websocket channel's pooled (usually direct) buffers and sends
+ * them as pre-encoded frames, without going through an intermediate String or byte array. Messages that don't fit
+ * into a pooled buffer are encoded on the heap instead.
+ */
+final class MessageEncoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final JsonFactory CBOR_FACTORY = new CBORFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private MessageEncoder() {
+    }
+
+    static void send(OutboundMessage message, WireProtocol protocol, WebSocketChannel channel,
+                     WebSocketCallback<Void> callback) throws IOException {
+        PooledByteBuffer pooled = channel.getBufferPool().allocate();
+        boolean handedOff = false;
+        try {
+            ByteBuffer buffer = pooled.getBuffer();
+            buffer.clear();
+            if (tryWrite(message, protocol, buffer)) {
+                buffer.flip();
+                if (protocol == WireProtocol.CBOR) {
+                    WebSockets.sendBinary(pooled, channel, callback);
+                } else {
+                    WebSockets.sendText(pooled, channel, callback);
+                }
+                // Undertow frees the buffer once it has been sent
+                handedOff = true;
+                return;
+            }
+        } finally {
+            if (!handedOff) pooled.close();
+        }
+
+        ByteBuffer heap = ByteBuffer.wrap(encode(message, protocol));
+        if (protocol == WireProtocol.CBOR) {
+            WebSockets.sendBinary(heap, channel, callback);
+        } else {
+            WebSockets.sendText(heap, channel, callback);
+        }
+    }
+
+    static byte[] encode(OutboundMessage message, WireProtocol protocol) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        write(message, protocol, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the message as JSON text, for logging
+     */
+    static String toJson(OutboundMessage message) {
+        try {
+            return new String(encode(message, WireProtocol.JSON), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "<unencodable message: " + e + ">";
+        }
+    }
+
+    /**
+     * @return false if the message did not fit into the buffer
+     */
+    private static boolean tryWrite(OutboundMessage message, WireProtocol protocol, ByteBuffer buffer)
+            throws IOException {
+        try {
+            write(message, protocol, new ByteBufferOutputStream(buffer));
+            return true;
+        } catch (BufferOverflowException e) {
+            return false;
+        }
+    }
+
+    private static void write(OutboundMessage message, WireProtocol protocol, OutputStream out) throws IOException {
+        JsonFactory factory = protocol == WireProtocol.CBOR ? CBOR_FACTORY : JSON_FACTORY;
+        try (JsonGenerator gen = factory.createGenerator(out)) {
+            message.write(gen);
+        }
+    }
+
+    private static class ByteBufferOutputStream extends OutputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            buffer.put(bytes, offset, length);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package lavalink.server.io;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * The constant parts of {@link OutboundMessage}s. Field names and constant values are kept as
+ * {@link SerializedString}s, whose UTF-8 and quoted forms are computed only once and then copied as is by the
+ * generators.
+ */
+final class MessageTemplates {
+
+    // Field names
+    static final SerializableString OP = new SerializedString("op");
+    static final SerializableString TYPE = new SerializedString("type");
+    static final SerializableString GUILD_ID = new SerializedString("guildId");
+    static final SerializableString STATE = new SerializedString("state");
+    static final SerializableString POSITION = new SerializedString("position");
+    static final SerializableString TIME = new SerializedString("time");
+    static final SerializableString PLAYERS = new SerializedString("players");
+    static final SerializableString TRACK = new SerializedString("track");
+    static final SerializableString REASON = new SerializedString("reason");
+    static final SerializableString ERROR = new SerializedString("error");
+    static final SerializableString THRESHOLD_MS = new SerializedString("thresholdMs");
+    static final SerializableString CODE = new SerializedString("code");
+    static final SerializableString BY_REMOTE = new SerializedString("byRemote");
+    static final SerializableString MESSAGES = new SerializedString("messages");
+    static final SerializableString DROPPED_EVENTS = new SerializedString("droppedEvents");
+    static final SerializableString PLAYING_PLAYERS = new SerializedString("playingPlayers");
+    static final SerializableString UPTIME = new SerializedString("uptime");
+    static final SerializableString MEMORY = new SerializedString("memory");
+    static final SerializableString FREE = new SerializedString("free");
+    static final SerializableString USED = new SerializedString("used");
+    static final SerializableString ALLOCATED = new SerializedString("allocated");
+    static final SerializableString RESERVABLE = new SerializedString("reservable");
+    static final SerializableString CPU = new SerializedString("cpu");
+    static final SerializableString CORES = new SerializedString("cores");
+    static final SerializableString SYSTEM_LOAD = new SerializedString("systemLoad");
+    static final SerializableString LAVALINK_LOAD = new SerializedString("lavalinkLoad");
+    static final SerializableString FRAME_STATS = new SerializedString("frameStats");
+    static final SerializableString SENT = new SerializedString("sent");
+    static final SerializableString NULLED = new SerializedString("nulled");
+    static final SerializableString DEFICIT = new SerializedString("deficit");
+    static final SerializableString LATE = new SerializedString("late");
+
+    // Values
+    static final SerializableString EVENT = new SerializedString("event");
+    static final SerializableString PLAYER_UPDATE = new SerializedString("playerUpdate");
+    static final SerializableString PLAYER_UPDATES = new SerializedString("playerUpdates");
+    static final SerializableString REPLAY = new SerializedString("replay");
+    static final SerializableString RESUME_OVERFLOW = new SerializedString("resumeOverflow");
+    static final SerializableString STATS = new SerializedString("stats");
+    static final SerializableString TRACK_END_EVENT = new SerializedString("TrackEndEvent");
+    static final SerializableString TRACK_EXCEPTION_EVENT = new SerializedString("TrackExceptionEvent");
+    static final SerializableString TRACK_STUCK_EVENT = new SerializedString("TrackStuckEvent");
+    static final SerializableString WEBSOCKET_CLOSED_EVENT = new SerializedString("WebSocketClosedEvent");
+
+    private MessageTemplates() {
+    }
+
+    /**
+     * Starts an event object, leaving it open for the fields of the specific event.
+     */
+    static void writeEventStart(JsonGenerator gen, SerializableString type, String guildId) throws IOException {
+        gen.writeStartObject();
+        gen.writeFieldName(OP);
+        gen.writeString(EVENT);
+        gen.writeFieldName(TYPE);
+        gen.writeString(type);
+        gen.writeFieldName(GUILD_ID);
+        gen.writeString(guildId);
+    }
+
+    static void writeTrack(JsonGenerator gen, @Nullable String track) throws IOException {
+        gen.writeFieldName(TRACK);
+        if (track != null) {
+            gen.writeString(track);
+        } else {
+            gen.writeNull();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package lavalink.server.io;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.json.JSONObject;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.List;
+
+import static lavalink.server.io.MessageTemplates.*;
+
+/**
+ * A message sent to a client. Messages write themselves to a {@link JsonGenerator}, so the same message can be encoded
+ * as JSON or CBOR, see {@link MessageEncoder}. Messages must not change once created, as they may be kept around until
+ * a paused session is resumed.
+ * <p>
+ * Field names and constant values come from {@link MessageTemplates}, so only the variable parts of a message have to
+ * be encoded each time it is sent.
+ */
+@FunctionalInterface
+public interface OutboundMessage {
+
+    void write(JsonGenerator gen) throws IOException;
+
+    static OutboundMessage of(JSONObject json) {
+        return gen -> CborCodec.writeValue(gen, json);
+    }
+
+    static OutboundMessage playerUpdate(String guildId, @Nullable Long position, long time) {
+        return gen -> {
+            gen.writeStartObject();
+            gen.writeFieldName(OP);
+            gen.writeString(PLAYER_UPDATE);
+            gen.writeFieldName(GUILD_ID);
+            gen.writeString(guildId);
+            gen.writeFieldName(STATE);
+            gen.writeStartObject();
+            if (position != null) {
+                gen.writeFieldName(POSITION);
+                gen.writeNumber(position);
+            }
+            gen.writeFieldName(TIME);
+            gen.writeNumber(time);
+            gen.writeEndObject();
+            gen.writeEndObject();
+        };
+    }
+
+    /**
+     * @param guildIds  the guilds of the players, in the same order as their positions
+     * @param positions the positions of the players
+     */
+    static OutboundMessage playerUpdates(long time, String[] guildIds, long[] positions) {
+        return gen -> {
+            gen.writeStartObject();
+            gen.writeFieldName(OP);
+            gen.writeString(PLAYER_UPDATES);
+            gen.writeFieldName(TIME);
+            gen.writeNumber(time);
+            gen.writeFieldName(PLAYERS);
+            gen.writeStartArray();
+            for (int i = 0; i < guildIds.length; i++) {
+                gen.writeStartObject();
+                gen.writeFieldName(GUILD_ID);
+                gen.writeString(guildIds[i]);
+                gen.writeFieldName(POSITION);
+                gen.writeNumber(positions[i]);
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        };
+    }
+
+    static OutboundMessage trackEnd(String guildId, @Nullable String track, String reason) {
+        return gen -> {
+            writeEventStart(gen, TRACK_END_EVENT, guildId);
+            writeTrack(gen, track);
+            gen.writeFieldName(REASON);
+            gen.writeString(reason);
+            gen.writeEndObject();
+        };
+    }
+
+    static OutboundMessage trackException(String guildId, @Nullable String track, @Nullable String error) {
+        return gen -> {
+            writeEventStart(gen, TRACK_EXCEPTION_EVENT, guildId);
+            writeTrack(gen, track);
+            if (error != null) {
+                gen.writeFieldName(ERROR);
+                gen.writeString(error);
+            }
+            gen.writeEndObject();
+        };
+    }
+
+    static OutboundMessage trackStuck(String guildId, @Nullable String track, long thresholdMs) {
+        return gen -> {
+            writeEventStart(gen, TRACK_STUCK_EVENT, guildId);
+            writeTrack(gen, track);
+            gen.writeFieldName(THRESHOLD_MS);
+            gen.writeNumber(thresholdMs);
+            gen.writeEndObject();
+        };
+    }
+
+    static OutboundMessage webSocketClosed(String guildId, @Nullable String reason, int code, boolean byRemote) {
+        return gen -> {
+            writeEventStart(gen, WEBSOCKET_CLOSED_EVENT, guildId);
+            if (reason != null) {
+                gen.writeFieldName(REASON);
+                gen.writeString(reason);
+            }
+            gen.writeFieldName(CODE);
+            gen.writeNumber(code);
+            gen.writeFieldName(BY_REMOTE);
+            gen.writeBoolean(byRemote);
+            gen.writeEndObject();
+        };
+    }
+
+    /**
+     * The backlog of a resumed session as a single message.
+     */
+    static OutboundMessage replay(List<OutboundMessage> messages) {
+        return gen -> {
+            gen.writeStartObject();
+            gen.writeFieldName(OP);
+            gen.writeString(REPLAY);
+            gen.writeFieldName(MESSAGES);
+            gen.writeStartArray();
+            for (OutboundMessage message : messages) {
+                message.write(gen);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        };
+    }
+
+    static OutboundMessage resumeOverflow(int droppedEvents) {
+        return gen -> {
+            gen.writeStartObject();
+            gen.writeFieldName(OP);
+            gen.writeString(RESUME_OVERFLOW);
+            gen.writeFieldName(DROPPED_EVENTS);
+            gen.writeNumber(droppedEvents);
+            gen.writeEndObject();
+        };
+    }
+}
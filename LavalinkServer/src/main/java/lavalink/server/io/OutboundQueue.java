@@ -0,0 +1,292 @@
+package lavalink.server.io;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import lavalink.server.config.OutboundQueueConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The messages of a websocket session that are waiting to be sent. Only one frame is handed to Undertow at a time, the
+ * rest waits here, where it can be coalesced and bounded:
+ * <ul>
+ * <li>A queued player update is replaced by a newer update with the same key.</li>
+ * <li>Past the soft limits of {@link OutboundQueueConfig}, new player updates are dropped, and queued ones are dropped
+ * to make room for events. Events are never dropped.</li>
+ * <li>Past the hard limits the client is considered stalled and {@link #onHardLimit} is invoked.</li>
+ * </ul>
+ * Messages are sent from buffer pool memory if nothing is queued, and encoded to the heap while they wait otherwise.
+ */
+class OutboundQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboundQueue.class);
+
+    private static final Gauge queuedMessages = Gauge.build()
+            .name("lavalink_outbound_queue_messages")
+            .help("Messages waiting to be sent to websocket clients")
+            .register();
+    private static final Gauge queuedBytes = Gauge.build()
+            .name("lavalink_outbound_queue_bytes")
+            .help("Encoded size of the messages waiting to be sent to websocket clients")
+            .register();
+    private static final Histogram sendLatency = Histogram.build()
+            .name("lavalink_outbound_send_latency_seconds")
+            .help("Time from queueing a message until it was written to the websocket")
+            .buckets(0.001, 0.005, 0.025, 0.100, 0.400, 1.600, 6.400)
+            .register();
+    private static final Counter droppedUpdates = Counter.build()
+            .name("lavalink_outbound_dropped_updates_total")
+            .help("Player updates that were not sent because they were superseded or the queue was full")
+            .labelNames("reason") // coalesced, overflow
+            .register();
+    private static final Counter disconnects = Counter.build()
+            .name("lavalink_outbound_queue_disconnects_total")
+            .help("Websocket clients disconnected for exceeding the hard limits of their outbound queue")
+            .register();
+
+    private final OutboundQueueConfig config;
+    private final Runnable onHardLimit;
+
+    // All guarded by this
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private final Map<String, Entry> queuedUpdates = new HashMap<>();
+    private int bytes = 0;
+    private boolean inFlight = false;
+    @Nullable
+    private Thread sendingThread = null;
+    // Incremented by clear(), so that callbacks of frames sent before don't affect the frames sent after
+    private int generation = 0;
+    private WebSocketChannel channel;
+    private WireProtocol protocol;
+
+    /**
+     * @param onHardLimit invoked, without holding the queue's lock, when a client has exceeded the hard limits
+     */
+    OutboundQueue(OutboundQueueConfig config, Runnable onHardLimit) {
+        this.config = config;
+        this.onHardLimit = onHardLimit;
+    }
+
+    /**
+     * @param updateKey null for messages that must always be delivered, otherwise the key under which a newer message
+     *                  supersedes this one
+     */
+    void offer(OutboundMessage message, @Nullable String updateKey, WebSocketChannel channel, WireProtocol protocol)
+            throws IOException {
+        boolean hardLimitExceeded = false;
+        synchronized (this) {
+            this.channel = channel;
+            this.protocol = protocol;
+
+            if (!inFlight && queue.isEmpty()) {
+                // Nothing to wait for, send it straight from a pooled buffer
+                queue.add(new Entry(message, null, updateKey));
+                queuedMessages.inc();
+            } else if (!enqueue(message, updateKey)) {
+                log.warn("Outbound queue exceeded its hard limits with {} messages and {} bytes, disconnecting",
+                        queue.size(), bytes);
+                clear();
+                disconnects.inc();
+                hardLimitExceeded = true;
+            }
+        }
+
+        if (hardLimitExceeded) {
+            onHardLimit.run();
+        } else {
+            pump();
+        }
+    }
+
+    /**
+     * Removes all queued messages, returning those that must not be lost, for example to replay them on resume. A frame
+     * that is still being written to the old channel no longer holds back the messages offered afterwards.
+     */
+    synchronized List<OutboundMessage> clear() {
+        List<OutboundMessage> events = new ArrayList<>();
+        for (Entry entry : queue) {
+            if (entry.updateKey == null) events.add(entry.message);
+        }
+
+        queuedMessages.dec(queue.size());
+        queue.clear();
+        queuedUpdates.clear();
+        setBytes(0);
+        inFlight = false;
+        generation++;
+        return events;
+    }
+
+    /**
+     * @return false if the hard limits were exceeded
+     */
+    private boolean enqueue(OutboundMessage message, @Nullable String updateKey) throws IOException {
+        byte[] encoded = MessageEncoder.encode(message, protocol);
+
+        if (updateKey != null) {
+            Entry superseded = queuedUpdates.get(updateKey);
+            if (superseded != null) {
+                setBytes(bytes + encoded.length - superseded.size());
+                superseded.message = message;
+                superseded.encoded = encoded;
+                droppedUpdates.labels("coalesced").inc();
+                return true;
+            }
+
+            if (isOverSoftLimit(encoded.length)) {
+                droppedUpdates.labels("overflow").inc();
+                return true;
+            }
+        } else {
+            while (isOverSoftLimit(encoded.length) && dropOldestUpdate()) {
+                droppedUpdates.labels("overflow").inc();
+            }
+
+            if (queue.size() + 1 > config.getHardMaxMessages() || bytes + encoded.length > config.getHardMaxBytes()) {
+                return false;
+            }
+        }
+
+        Entry entry = new Entry(message, encoded, updateKey);
+        queue.add(entry);
+        if (updateKey != null) queuedUpdates.put(updateKey, entry);
+        queuedMessages.inc();
+        setBytes(bytes + encoded.length);
+        return true;
+    }
+
+    private boolean isOverSoftLimit(int size) {
+        return queue.size() + 1 > config.getMaxMessages() || bytes + size > config.getMaxBytes();
+    }
+
+    private boolean dropOldestUpdate() {
+        Iterator<Entry> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.updateKey == null) continue;
+
+            iterator.remove();
+            queuedUpdates.remove(entry.updateKey);
+            queuedMessages.dec();
+            setBytes(bytes - entry.size());
+            return true;
+        }
+        return false;
+    }
+
+    private void setBytes(int bytes) {
+        queuedBytes.inc(bytes - this.bytes);
+        this.bytes = bytes;
+    }
+
+    /**
+     * Sends queued messages until one of them is still being written. Callbacks that complete synchronously, inside
+     * of the send call, only clear the in flight flag, and this loop sends the next message, rather than recursing.
+     */
+    private void pump() {
+        while (true) {
+            Entry entry;
+            WebSocketChannel channel;
+            WireProtocol protocol;
+            int generation;
+            synchronized (this) {
+                if (inFlight || queue.isEmpty()) return;
+
+                entry = queue.poll();
+                queuedMessages.dec();
+                setBytes(bytes - entry.size());
+                if (entry.updateKey != null) queuedUpdates.remove(entry.updateKey, entry);
+                inFlight = true;
+                sendingThread = Thread.currentThread();
+                channel = this.channel;
+                protocol = this.protocol;
+                generation = this.generation;
+            }
+
+            try {
+                send(entry, channel, protocol, generation);
+            } catch (IOException | RuntimeException e) {
+                log.error("Failed to send message", e);
+                onSent(generation);
+            } finally {
+                synchronized (this) {
+                    // A callback on another thread may have started sending the next message already
+                    if (sendingThread == Thread.currentThread()) sendingThread = null;
+                }
+            }
+        }
+    }
+
+    private void send(Entry entry, WebSocketChannel channel, WireProtocol protocol, int generation)
+            throws IOException {
+        long queuedAt = entry.queuedAt;
+        WebSocketCallback<Void> callback = new WebSocketCallback<Void>() {
+            @Override
+            public void complete(WebSocketChannel channel, Void context) {
+                sendLatency.observe((System.nanoTime() - queuedAt) / 1e9);
+                if (log.isTraceEnabled()) log.trace("Sent {}", MessageEncoder.toJson(entry.message));
+                onSent(generation);
+            }
+
+            @Override
+            public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+                log.error("Error", throwable);
+                onSent(generation);
+            }
+        };
+
+        if (entry.encoded == null) {
+            MessageEncoder.send(entry.message, protocol, channel, callback);
+        } else if (protocol == WireProtocol.CBOR) {
+            WebSockets.sendBinary(ByteBuffer.wrap(entry.encoded), channel, callback);
+        } else {
+            WebSockets.sendText(ByteBuffer.wrap(entry.encoded), channel, callback);
+        }
+    }
+
+    private void onSent(int generation) {
+        synchronized (this) {
+            if (generation != this.generation) return;
+
+            inFlight = false;
+            // Completed inside of the send call, the pump loop takes care of the next message
+            if (sendingThread == Thread.currentThread()) return;
+        }
+
+        pump();
+    }
+
+    private static class Entry {
+        @Nullable
+        private final String updateKey;
+        private final long queuedAt = System.nanoTime();
+        private OutboundMessage message;
+        // Null if the message is sent as soon as it's queued
+        @Nullable
+        private byte[] encoded;
+
+        private Entry(OutboundMessage message, @Nullable byte[] encoded, @Nullable String updateKey) {
+            this.message = message;
+            this.encoded = encoded;
+            this.updateKey = updateKey;
+        }
+
+        private int size() {
+            return encoded != null ? encoded.length : 0;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package lavalink.server.io;
+
+import io.prometheus.client.Counter;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The messages sent to a paused session, to be replayed when it is resumed. Of the updates only the latest per key is
+ * kept, as it supersedes the ones before. Events are all kept until their encoded size exceeds the limit, at which
+ * point the oldest events are dropped, and the number of dropped events is reported with the backlog. Updates don't
+ * count towards the limit, so that they can't push out events.
+ */
+class ResumeBuffer {
+
+    private static final Counter droppedEvents = Counter.build()
+            .name("lavalink_resume_dropped_events_total")
+            .help("Events not replayed to a resumed session because its resume buffer was full")
+            .register();
+
+    static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    private final int maxBytes;
+
+    // All guarded by this
+    private final ArrayDeque<Entry> events = new ArrayDeque<>();
+    private final Map<String, Entry> updates = new LinkedHashMap<>();
+    // The encoded size of the events
+    private int bytes = 0;
+    private int dropped = 0;
+
+    ResumeBuffer(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param updateKey null for events, otherwise the key under which a newer message supersedes this one
+     */
+    synchronized void add(OutboundMessage message, @Nullable String updateKey) throws IOException {
+        if (updateKey != null) {
+            // Updates are bounded by the number of players, so they are neither sized nor dropped
+            updates.remove(updateKey);
+            updates.put(updateKey, new Entry(message, 0));
+            return;
+        }
+
+        // Sized as JSON, the protocol of the resuming connection isn't known yet
+        Entry entry = new Entry(message, MessageEncoder.encode(message, WireProtocol.JSON).length);
+        bytes += entry.size;
+        events.add(entry);
+
+        Iterator<Entry> oldest = events.iterator();
+        while (bytes > maxBytes && oldest.hasNext()) {
+            bytes -= oldest.next().size;
+            oldest.remove();
+            dropped++;
+            droppedEvents.inc();
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return events.isEmpty() && updates.isEmpty() && dropped == 0;
+    }
+
+    /**
+     * Removes all buffered messages.
+     *
+     * @return the events in the order they were sent, followed by the latest updates
+     */
+    synchronized Backlog drain() {
+        List<OutboundMessage> messages = new ArrayList<>(events.size() + updates.size());
+        events.forEach(entry -> messages.add(entry.message));
+        updates.values().forEach(entry -> messages.add(entry.message));
+        Backlog backlog = new Backlog(Collections.unmodifiableList(messages), dropped);
+
+        events.clear();
+        updates.clear();
+        bytes = 0;
+        dropped = 0;
+        return backlog;
+    }
+
+    static class Backlog {
+        final List<OutboundMessage> messages;
+        /** Events that didn't fit into the buffer, the client should not rely on its state being complete */
+        final int droppedEvents;
+
+        private Backlog(List<OutboundMessage> messages, int droppedEvents) {
+            this.messages = messages;
+            this.droppedEvents = droppedEvents;
+        }
+    }
+
+    private static class Entry {
+        private final OutboundMessage message;
+        private final int size;
+
+        private Entry(OutboundMessage message, int size) {
+            this.message = message;
+            this.size = size;
+        }
+    }
+}
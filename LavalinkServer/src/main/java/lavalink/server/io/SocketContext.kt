@@ -23,53 +23,81 @@
 package lavalink.server.io
 
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager
+import lavalink.server.config.OutboundQueueConfig
+import lavalink.server.player.AudioPlayerManagerPool
+import lavalink.server.player.OpusFrameCache
 import lavalink.server.player.Player
+import lavalink.server.player.SharedStreamHub
+import lavalink.server.util.HashedWheelScheduler
 import space.npstr.magma.api.MagmaMember
-import io.undertow.websockets.core.WebSocketCallback
-import io.undertow.websockets.core.WebSocketChannel
-import io.undertow.websockets.core.WebSockets
+import space.npstr.magma.api.Member
 import io.undertow.websockets.jsr.UndertowSession
 import org.json.JSONObject
 import org.slf4j.LoggerFactory
+import org.springframework.web.socket.CloseStatus
 import org.springframework.web.socket.WebSocketSession
 import org.springframework.web.socket.adapter.standard.StandardWebSocketSession
 import space.npstr.magma.MagmaFactory
 import space.npstr.magma.api.MagmaApi
 import space.npstr.magma.api.event.MagmaEvent
 import space.npstr.magma.api.event.WebSocketClosed
+import java.io.IOException
 import java.util.*
 import java.util.concurrent.*
 import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.Executors
-import java.util.concurrent.ScheduledExecutorService
 import java.util.concurrent.TimeUnit
-import java.util.function.Supplier
 
 class SocketContext internal constructor(
-        audioPlayerManagerSupplier: Supplier<AudioPlayerManager>,
+        private val audioPlayerManagerPool: AudioPlayerManagerPool,
+        val scheduler: HashedWheelScheduler,
+        val statsSampler: StatsSampler,
+        val sharedStreams: SharedStreamHub,
+        val opusFrameCache: OpusFrameCache,
         var session: WebSocketSession,
+        @Volatile var protocol: WireProtocol,
         private val socketServer: SocketServer,
-        val userId: String
+        val userId: String,
+        outboundQueueConfig: OutboundQueueConfig,
+        resumeBufferMaxBytes: Int
 ) {
 
     companion object {
         private val log = LoggerFactory.getLogger(SocketContext::class.java)
+
+        /** Update key of batched player updates, each batch supersedes the previous one */
+        private const val PLAYER_UPDATES_KEY = "playerUpdates"
     }
 
-    val audioPlayerManager: AudioPlayerManager = audioPlayerManagerSupplier.get()
+    val audioPlayerManager: AudioPlayerManager = audioPlayerManagerPool.acquire()
     internal val magma: MagmaApi = MagmaFactory.of { socketServer.getAudioSendFactory(it) }
     //guildId <-> Player
     val players = ConcurrentHashMap<String, Player>()
     @Volatile
     var sessionPaused = false
-    private val resumeEventQueue = ConcurrentLinkedQueue<String>()
+    private val resumeBuffer = ResumeBuffer(resumeBufferMaxBytes)
+    private val outboundQueue = OutboundQueue(outboundQueueConfig) { disconnectSlowConsumer() }
 
     /** Null means disabled. See implementation notes */
     var resumeKey: String? = null
     var resumeTimeout = 60L // Seconds
-    private var sessionTimeoutFuture: ScheduledFuture<Unit>? = null
-    private val executor: ScheduledExecutorService
-    val playerUpdateService: ScheduledExecutorService
+    /** If true, the backlog of a resumed session is replayed as a single replay message */
+    @Volatile
+    var batchReplay = false
+    private var sessionTimeout: HashedWheelScheduler.Timeout? = null
+    private val statsTimeout: HashedWheelScheduler.Timeout
+    /** If true, player updates are sent together in one playerUpdates message instead of one message per player */
+    @Volatile
+    var batchPlayerUpdates = false
+        private set
+    private var playerUpdatesTimeout: HashedWheelScheduler.Timeout? = null
+    /**
+     * If true, periodic player updates are replaced by a keepalive, and updates are otherwise only sent when the
+     * position of a player can't be extrapolated from the last update anymore
+     */
+    @Volatile
+    var adaptivePlayerUpdates = false
+    @Volatile
+    var playerUpdateKeepalive = 30L // Seconds
 
     val playingPlayers: List<Player>
         get() {
@@ -82,42 +110,67 @@ class SocketContext internal constructor(
     init {
         magma.eventStream.subscribe { this.handleMagmaEvent(it) }
 
-        executor = Executors.newSingleThreadScheduledExecutor()
-        executor.scheduleAtFixedRate(StatsTask(this, socketServer), 0, 1, TimeUnit.MINUTES)
-
-        playerUpdateService = Executors.newScheduledThreadPool(2) { r ->
-            val thread = Thread(r)
-            thread.name = "player-update"
-            thread.isDaemon = true
-            thread
-        }
+        statsTimeout = scheduler.scheduleAtFixedRate(StatsTask(this, statsSampler), 0,
+                StatsSampler.INTERVAL_SECONDS, TimeUnit.SECONDS)
     }
 
     internal fun getPlayer(guildId: String) = players.computeIfAbsent(guildId) {
         Player(this, guildId, audioPlayerManager)
     }
 
+    internal fun getMember(guildId: String): Member = players[guildId]?.member ?: MagmaMember.builder()
+            .userId(userId)
+            .guildId(guildId)
+            .build()
+
     internal fun getPlayers(): Map<String, Player> {
         return players
     }
 
     private fun handleMagmaEvent(magmaEvent: MagmaEvent) {
         if (magmaEvent is WebSocketClosed) {
-            val out = JSONObject()
-            out.put("op", "event")
-            out.put("type", "WebSocketClosedEvent")
-            out.put("guildId", magmaEvent.member.guildId)
-            out.put("reason", magmaEvent.reason)
-            out.put("code", magmaEvent.closeCode)
-            out.put("byRemote", magmaEvent.isByRemote)
-
-            send(out)
+            send(OutboundMessage.webSocketClosed(magmaEvent.member.guildId, magmaEvent.reason, magmaEvent.closeCode,
+                    magmaEvent.isByRemote))
         }
     }
 
+    @Synchronized
+    fun setPlayerUpdateBatching(enabled: Boolean) {
+        if (enabled == batchPlayerUpdates) return
+
+        batchPlayerUpdates = enabled
+        playerUpdatesTimeout?.cancel()
+        playerUpdatesTimeout = if (enabled) {
+            scheduler.scheduleAtFixedRate({ sendPlayerUpdates() }, Player.UPDATE_INTERVAL_SECONDS,
+                    Player.UPDATE_INTERVAL_SECONDS, TimeUnit.SECONDS)
+        } else null
+    }
+
+    private fun sendPlayerUpdates() {
+        if (sessionPaused) return
+
+        val now = System.currentTimeMillis()
+        val guildIds = ArrayList<String>()
+        val positions = ArrayList<Long>()
+        players.values.forEach { player ->
+            val position = player.trackPosition ?: return@forEach
+            if (!player.isUpdateDue(now)) return@forEach
+
+            player.markUpdateSent(now)
+            guildIds.add(player.guildId)
+            positions.add(position)
+        }
+        if (guildIds.isEmpty()) return
+
+        val message = OutboundMessage.playerUpdates(now, guildIds.toTypedArray(), positions.toLongArray())
+        sendUpdate(PLAYER_UPDATES_KEY, message)
+    }
+
     fun pause() {
         sessionPaused = true
-        sessionTimeoutFuture = executor.schedule<Unit>({
+        // Whatever the old connection didn't get to send is replayed on resume
+        outboundQueue.clear().forEach { resumeBuffer.add(it, null) }
+        sessionTimeout = scheduler.schedule({
             socketServer.onSessionResumeTimeout(this)
         }, resumeTimeout, TimeUnit.SECONDS)
     }
@@ -125,42 +178,56 @@ class SocketContext internal constructor(
     /**
      * Either sends the payload now or queues it up
      */
-    fun send(payload: JSONObject) = send(payload.toString())
+    fun send(payload: JSONObject) = send(OutboundMessage.of(payload))
+
+    /**
+     * Either sends the message now or queues it up
+     */
+    fun send(message: OutboundMessage) = send(message, null)
 
-    private fun send(payload: String) {
+    /**
+     * Sends a message that is superseded by the next message with the same key, like a player update. It may be
+     * dropped if the client can't keep up.
+     */
+    fun sendUpdate(key: String, message: OutboundMessage) = send(message, key)
+
+    private fun send(message: OutboundMessage, updateKey: String?) {
         if (sessionPaused) {
-            resumeEventQueue.add(payload)
+            resumeBuffer.add(message, updateKey)
             return
         }
 
         if (!session.isOpen) return
 
         val undertowSession = (session as StandardWebSocketSession).nativeSession as UndertowSession
-        WebSockets.sendText(payload, undertowSession.webSocketChannel,
-                object : WebSocketCallback<Void> {
-                    override fun complete(channel: WebSocketChannel, context: Void?) {
-                        log.trace("Sent {}", payload)
-                    }
-
-                    override fun onError(channel: WebSocketChannel, context: Void?, throwable: Throwable) {
-                        log.error("Error", throwable)
-                    }
-                })
+        outboundQueue.offer(message, updateKey, undertowSession.webSocketChannel, protocol)
+    }
+
+    private fun disconnectSlowConsumer() {
+        try {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Client is not keeping up with sent messages"))
+        } catch (e: IOException) {
+            log.error("Failed to close session of slow client", e)
+        }
     }
 
     /**
      * @return true if we can resume, false otherwise
      */
-    fun stopResumeTimeout() = sessionTimeoutFuture?.cancel(false) ?: false
+    fun stopResumeTimeout() = sessionTimeout?.cancel() ?: false
 
-    fun resume(session: WebSocketSession) {
+    fun resume(session: WebSocketSession, protocol: WireProtocol) {
         sessionPaused = false
         this.session = session
-        log.info("Replaying ${resumeEventQueue.size} events")
-
-        // Bulk actions are not guaranteed to be atomic, so we need to do this imperatively
-        while (resumeEventQueue.isNotEmpty()) {
-            send(resumeEventQueue.remove())
+        this.protocol = protocol
+
+        val backlog = resumeBuffer.drain()
+        log.info("Replaying ${backlog.messages.size} messages, ${backlog.droppedEvents} events were dropped")
+        if (backlog.droppedEvents > 0) send(OutboundMessage.resumeOverflow(backlog.droppedEvents))
+        if (!batchReplay) {
+            backlog.messages.forEach { send(it) }
+        } else if (backlog.messages.isNotEmpty()) {
+            send(OutboundMessage.replay(backlog.messages))
         }
 
         players.values.forEach { it -> SocketServer.sendPlayerUpdate(this, it) }
@@ -168,19 +235,17 @@ class SocketContext internal constructor(
 
     internal fun shutdown() {
         log.info("Shutting down " + playingPlayers.size + " playing players.")
-        executor.shutdown()
-        audioPlayerManager.shutdown()
-        playerUpdateService.shutdown()
-        players.keys.forEach { guildId ->
-            val member = MagmaMember.builder()
-                    .userId(userId)
-                    .guildId(guildId)
-                    .build()
-            magma.removeSendHandler(member)
-            magma.closeConnection(member)
+        statsTimeout.cancel()
+        sessionTimeout?.cancel()
+        playerUpdatesTimeout?.cancel()
+        outboundQueue.clear()
+        players.values.forEach { player ->
+            magma.removeSendHandler(player.member)
+            magma.closeConnection(player.member)
         }
 
-        players.values.forEach(Player::stop)
+        players.values.forEach(Player::destroy)
         magma.shutdown()
+        audioPlayerManagerPool.release(audioPlayerManager)
     }
 }
@@ -24,15 +24,20 @@ package lavalink.server.io
 
 import com.github.shredder121.asyncaudio.jda.AsyncPacketProviderFactory
 import com.sedmelluq.discord.lavaplayer.jdaudp.NativeAudioSendFactory
-import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager
 import lavalink.server.config.AudioSendFactoryConfiguration
+import lavalink.server.config.OutboundQueueConfig
 import lavalink.server.config.ServerConfig
+import lavalink.server.player.AudioPlayerManagerPool
+import lavalink.server.player.DecodedTrackCache
+import lavalink.server.player.OpusFrameCache
 import lavalink.server.player.Player
+import lavalink.server.player.SharedStreamHub
+import lavalink.server.util.HashedWheelScheduler
 import lavalink.server.util.Util
 import net.dv8tion.jda.api.audio.factory.IAudioSendFactory
-import org.json.JSONObject
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Service
+import org.springframework.web.socket.BinaryMessage
 import org.springframework.web.socket.CloseStatus
 import org.springframework.web.socket.TextMessage
 import org.springframework.web.socket.WebSocketSession
@@ -40,13 +45,18 @@ import org.springframework.web.socket.handler.TextWebSocketHandler
 import space.npstr.magma.api.Member
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
-import java.util.function.Supplier
 
 @Service
 class SocketServer(
         private val serverConfig: ServerConfig,
-        private val audioPlayerManagerSupplier: Supplier<AudioPlayerManager>,
-        private val audioSendFactoryConfiguration: AudioSendFactoryConfiguration
+        private val audioPlayerManagerPool: AudioPlayerManagerPool,
+        private val scheduler: HashedWheelScheduler,
+        private val statsSampler: StatsSampler,
+        private val sharedStreams: SharedStreamHub,
+        private val opusFrameCache: OpusFrameCache,
+        private val audioSendFactoryConfiguration: AudioSendFactoryConfiguration,
+        private val outboundQueueConfig: OutboundQueueConfig,
+        decodedTrackCache: DecodedTrackCache
 ) : TextWebSocketHandler() {
 
     // userId <-> shardCount
@@ -54,19 +64,31 @@ class SocketServer(
     val contextMap = HashMap<String, SocketContext>()
     private val sendFactories = ConcurrentHashMap<Int, IAudioSendFactory>()
     @Suppress("LeakingThis")
-    private val handlers = WebSocketHandlers(contextMap)
+    private val handlers = WebSocketHandlers(decodedTrackCache)
+    // @formatter:off
+    private val opHandlers: Map<String, (SocketContext, InboundMessage) -> Unit> = mapOf(
+            "voiceUpdate"            to handlers::voiceUpdate,
+            "play"                   to handlers::play,
+            "stop"                   to handlers::stop,
+            "pause"                  to handlers::pause,
+            "seek"                   to handlers::seek,
+            "volume"                 to handlers::volume,
+            "destroy"                to handlers::destroy,
+            "configureResuming"      to handlers::configureResuming,
+            "configurePlayerUpdates" to handlers::configurePlayerUpdates,
+            "equalizer"              to handlers::equalizer
+    )
+    // @formatter:on
     private val resumableSessions = mutableMapOf<String, SocketContext>()
 
     companion object {
         private val log = LoggerFactory.getLogger(SocketServer::class.java)
 
         fun sendPlayerUpdate(socketContext: SocketContext, player: Player) {
-            val json = JSONObject()
-            json.put("op", "playerUpdate")
-            json.put("guildId", player.guildId)
-            json.put("state", player.state)
-
-            socketContext.send(json)
+            val time = System.currentTimeMillis()
+            player.markUpdateSent(time)
+            socketContext.sendUpdate(player.guildId,
+                    OutboundMessage.playerUpdate(player.guildId, player.trackPosition, time))
         }
     }
 
@@ -83,16 +105,21 @@ class SocketServer(
         var resumable: SocketContext? = null
         if (resumeKey != null) resumable = resumableSessions.remove(resumeKey)
 
+        // Validated by the handshake interceptor
+        val protocol = WireProtocol.fromHeader(session.handshakeHeaders.getFirst(WireProtocol.HEADER))!!
+
         if (resumable != null) {
             contextMap[session.id] = resumable
-            resumable.resume(session)
+            resumable.resume(session, protocol)
             log.info("Resumed session with key $resumeKey")
             return
         }
 
         shardCounts[userId] = shardCount
 
-        contextMap[session.id] = SocketContext(audioPlayerManagerSupplier, session, this, userId)
+        val resumeBufferMaxBytes = serverConfig.resumeBufferMaxBytes ?: ResumeBuffer.DEFAULT_MAX_BYTES
+        contextMap[session.id] = SocketContext(audioPlayerManagerPool, scheduler, statsSampler, sharedStreams,
+                opusFrameCache, session, protocol, this, userId, outboundQueueConfig, resumeBufferMaxBytes)
         log.info("Connection successfully established from " + session.remoteAddress!!)
     }
 
@@ -124,37 +151,55 @@ class SocketServer(
 
     override fun handleTextMessage(session: WebSocketSession?, message: TextMessage?) {
         try {
-            handleTextMessageSafe(session!!, message!!)
+            log.debug(message!!.payload)
+            handleMessage(session!!, InboundMessage.fromJson(message.payload))
         } catch (e: Exception) {
             log.error("Exception while handling websocket message", e)
         }
 
     }
 
-    private fun handleTextMessageSafe(session: WebSocketSession, message: TextMessage) {
-        val json = JSONObject(message.payload)
+    override fun handleBinaryMessage(session: WebSocketSession?, message: BinaryMessage?) {
+        try {
+            val payload = message!!.payload
+            val length = payload.remaining()
+            val bytes: ByteArray
+            val offset: Int
+            if (payload.hasArray()) {
+                bytes = payload.array()
+                offset = payload.arrayOffset() + payload.position()
+            } else {
+                bytes = ByteArray(length)
+                payload.duplicate().get(bytes)
+                offset = 0
+            }
 
-        log.info(message.payload)
+            if (log.isDebugEnabled) log.debug("{}", CborCodec.decode(bytes, offset, length))
+            handleMessage(session!!, InboundMessage.fromCbor(bytes, offset, length))
+        } catch (e: Exception) {
+            log.error("Exception while handling websocket message", e)
+        }
+    }
 
+    private fun handleMessage(session: WebSocketSession, message: InboundMessage) {
         if (!session.isOpen) {
             log.error("Ignoring closing websocket: " + session.remoteAddress!!)
             return
         }
 
-        when (json.getString("op")) {
-            // @formatter:off
-            "voiceUpdate"       -> handlers.voiceUpdate(session, json)
-            "play"              -> handlers.play(session, json)
-            "stop"              -> handlers.stop(session, json)
-            "pause"             -> handlers.pause(session, json)
-            "seek"              -> handlers.seek(session, json)
-            "volume"            -> handlers.volume(session, json)
-            "destroy"           -> handlers.destroy(session, json)
-            "configureResuming" -> handlers.configureResuming(session, json)
-            "equalizer"         -> handlers.equalizer(session, json)
-            else                -> log.warn("Unexpected operation: " + json.getString("op"))
-            // @formatter:on
+        val context = contextMap[session.id]
+        if (context == null) {
+            log.warn("Ignoring message from unknown session " + session.remoteAddress)
+            return
         }
+
+        val handler = message.op?.let { opHandlers[it] }
+        if (handler == null) {
+            log.warn("Unexpected operation: " + message.op)
+            return
+        }
+
+        handler(context, message)
     }
 
     fun getAudioSendFactory(member: Member): IAudioSendFactory {
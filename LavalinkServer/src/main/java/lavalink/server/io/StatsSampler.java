@@ -0,0 +1,130 @@
+package lavalink.server.io;
+
+import lavalink.server.util.HashedWheelScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import oshi.SystemInfo;
+import oshi.hardware.HardwareAbstractionLayer;
+import oshi.software.os.OSProcess;
+import oshi.software.os.OperatingSystem;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The node wide part of the stats sent to clients. System stats are sampled once per interval into an immutable
+ * {@link Snapshot}, which every connection's {@link StatsTask} serializes as is. Player counts are kept up to date by
+ * the players themselves, so they never require a walk over all connections.
+ */
+@Component
+public class StatsSampler {
+
+    private static final Logger log = LoggerFactory.getLogger(StatsSampler.class);
+
+    static final long INTERVAL_SECONDS = 60;
+
+    private final SystemInfo si = new SystemInfo();
+    private final AtomicInteger players = new AtomicInteger();
+    private final AtomicInteger playingPlayers = new AtomicInteger();
+    private volatile Snapshot snapshot;
+
+    // Only accessed by the sampling task
+    private double uptime = 0;
+    private double cpuTime = 0;
+
+    public StatsSampler(HashedWheelScheduler scheduler) {
+        snapshot = sample();
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                snapshot = sample();
+            } catch (Exception e) {
+                log.error("Exception while sampling stats", e);
+            }
+        }, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public int getPlayers() {
+        return players.get();
+    }
+
+    public int getPlayingPlayers() {
+        return playingPlayers.get();
+    }
+
+    public void onPlayerCreated() {
+        players.incrementAndGet();
+    }
+
+    public void onPlayerDestroyed() {
+        players.decrementAndGet();
+    }
+
+    public void onPlayingChanged(boolean playing) {
+        if (playing) {
+            playingPlayers.incrementAndGet();
+        } else {
+            playingPlayers.decrementAndGet();
+        }
+    }
+
+    private Snapshot sample() {
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.freeMemory();
+        long allocated = runtime.totalMemory();
+
+        double load = getProcessRecentCpuUsage();
+        if (!Double.isFinite(load)) load = 0;
+
+        return new Snapshot(free, allocated - free, allocated, runtime.maxMemory(), runtime.availableProcessors(),
+                si.getHardware().getProcessor().getSystemCpuLoad(), load);
+    }
+
+    private double getProcessRecentCpuUsage() {
+        double output;
+        HardwareAbstractionLayer hal = si.getHardware();
+        OperatingSystem os = si.getOperatingSystem();
+        OSProcess p = os.getProcess(os.getProcessId());
+
+        if (cpuTime != 0) {
+            double uptimeDiff = p.getUpTime() - uptime;
+            double cpuDiff = (p.getKernelTime() + p.getUserTime()) - cpuTime;
+            output = cpuDiff / uptimeDiff;
+        } else {
+            output = ((double) (p.getKernelTime() + p.getUserTime())) / (double) p.getUserTime();
+        }
+
+        // Record for next invocation
+        uptime = p.getUpTime();
+        cpuTime = p.getKernelTime() + p.getUserTime();
+        return output / hal.getProcessor().getLogicalProcessorCount();
+    }
+
+    /**
+     * Memory is in bytes, loads are between 0 and 1.
+     */
+    public static class Snapshot {
+        final long memoryFree;
+        final long memoryUsed;
+        final long memoryAllocated;
+        final long memoryReservable;
+        final int cores;
+        final double systemLoad;
+        final double lavalinkLoad;
+
+        private Snapshot(long memoryFree, long memoryUsed, long memoryAllocated, long memoryReservable, int cores,
+                         double systemLoad, double lavalinkLoad) {
+            this.memoryFree = memoryFree;
+            this.memoryUsed = memoryUsed;
+            this.memoryAllocated = memoryAllocated;
+            this.memoryReservable = memoryReservable;
+            this.cores = cores;
+            this.systemLoad = systemLoad;
+            this.lavalinkLoad = lavalinkLoad;
+        }
+    }
+}
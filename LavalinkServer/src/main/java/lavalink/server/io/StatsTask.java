@@ -24,27 +24,27 @@ package lavalink.server.io;
 
 import lavalink.server.Launcher;
 import lavalink.server.player.AudioLossCounter;
+import lavalink.server.player.FrameTelemetry;
 import lavalink.server.player.Player;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import oshi.SystemInfo;
-import oshi.hardware.HardwareAbstractionLayer;
-import oshi.software.os.OSProcess;
-import oshi.software.os.OperatingSystem;
 
+import static lavalink.server.io.MessageTemplates.*;
+
+/**
+ * Sends the stats to a single connection. The node wide stats come from the {@link StatsSampler}, only the frame stats
+ * are computed here, as they cover the players of this connection.
+ */
 public class StatsTask implements Runnable {
 
     private static final Logger log = LoggerFactory.getLogger(StatsTask.class);
 
-    private SocketContext context;
-    private final SocketServer socketServer;
-
-    private final SystemInfo si = new SystemInfo();
+    private final SocketContext context;
+    private final StatsSampler sampler;
 
-    StatsTask(SocketContext context, SocketServer socketServer) {
+    StatsTask(SocketContext context, StatsSampler sampler) {
         this.context = context;
-        this.socketServer = socketServer;
+        this.sampler = sampler;
     }
 
     @Override
@@ -59,91 +59,82 @@ public class StatsTask implements Runnable {
     private void sendStats() {
         if (context.getSessionPaused()) return;
 
-        JSONObject out = new JSONObject();
-
-        final int[] playersTotal = {0};
-        final int[] playersPlaying = {0};
-
-        socketServer.getContexts().forEach(socketContext -> {
-            playersTotal[0] += socketContext.getPlayers().size();
-            playersPlaying[0] += socketContext.getPlayingPlayers().size();
-        });
-
-        out.put("op", "stats");
-        out.put("players", playersTotal[0]);
-        out.put("playingPlayers", playersPlaying[0]);
-        out.put("uptime", System.currentTimeMillis() - Launcher.INSTANCE.getStartTime());
-
-        // In bytes
-        JSONObject mem = new JSONObject();
-        mem.put("free", Runtime.getRuntime().freeMemory());
-        mem.put("used", Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
-        mem.put("allocated", Runtime.getRuntime().totalMemory());
-        mem.put("reservable", Runtime.getRuntime().maxMemory());
-        out.put("memory", mem);
-
-        HardwareAbstractionLayer hal = si.getHardware();
-
-
-
-        JSONObject cpu = new JSONObject();
-        cpu.put("cores", Runtime.getRuntime().availableProcessors());
-        cpu.put("systemLoad", hal.getProcessor().getSystemCpuLoad());
-        double load = getProcessRecentCpuUsage();
-        if (!Double.isFinite(load)) load = 0;
-        cpu.put("lavalinkLoad", load);
-
-        out.put("cpu", cpu);
-
         int totalSent = 0;
         int totalNulled = 0;
+        long totalLate = 0;
         int players = 0;
 
-        for (Player player : context.getPlayingPlayers()) {
+        for (Player player : context.getPlayers().values()) {
             AudioLossCounter counter = player.getAudioLossCounter();
-            if (!counter.isDataUsable()) continue;
+            if (!player.isPlaying() || !counter.isDataUsable()) continue;
 
             players++;
             totalSent += counter.getLastMinuteSuccess();
             totalNulled += counter.getLastMinuteLoss();
+            totalLate += player.getFrameTelemetry().getLastSeconds(FrameTelemetry.WINDOW_SECONDS).getLate();
         }
 
         int totalDeficit = players * AudioLossCounter.EXPECTED_PACKET_COUNT_PER_MIN
                 - (totalSent + totalNulled);
 
-        // We can't divide by 0
-        if (players != 0) {
-            JSONObject frames = new JSONObject();
-            frames.put("sent", totalSent / players);
-            frames.put("nulled", totalNulled / players);
-            frames.put("deficit", totalDeficit / players);
-            out.put("frameStats", frames);
-        }
-
-        context.send(out);
-    }
-
-    private double uptime = 0;
-    private double cpuTime = 0;
-
-    private double getProcessRecentCpuUsage() {
-        double output;
-        HardwareAbstractionLayer hal = si.getHardware();
-        OperatingSystem os = si.getOperatingSystem();
-        OSProcess p = os.getProcess(os.getProcessId());
-
-        if (cpuTime != 0) {
-            double uptimeDiff = p.getUpTime() - uptime;
-            double cpuDiff = (p.getKernelTime() + p.getUserTime()) - cpuTime;
-            output = cpuDiff / uptimeDiff;
-        } else {
-            output = ((double) (p.getKernelTime() + p.getUserTime())) / (double) p.getUserTime();
-        }
-
-        // Record for next invocation
-        uptime = p.getUpTime();
-        cpuTime = p.getKernelTime() + p.getUserTime();
-        return output / hal.getProcessor().getLogicalProcessorCount();
+        StatsSampler.Snapshot snapshot = sampler.getSnapshot();
+        int playersTotal = sampler.getPlayers();
+        int playersPlaying = sampler.getPlayingPlayers();
+        long uptime = System.currentTimeMillis() - Launcher.INSTANCE.getStartTime();
+        int framePlayers = players;
+        int framesSent = totalSent;
+        int framesNulled = totalNulled;
+        long framesLate = totalLate;
+
+        context.send(gen -> {
+            gen.writeStartObject();
+            gen.writeFieldName(OP);
+            gen.writeString(STATS);
+            gen.writeFieldName(PLAYERS);
+            gen.writeNumber(playersTotal);
+            gen.writeFieldName(PLAYING_PLAYERS);
+            gen.writeNumber(playersPlaying);
+            gen.writeFieldName(UPTIME);
+            gen.writeNumber(uptime);
+
+            // In bytes
+            gen.writeFieldName(MEMORY);
+            gen.writeStartObject();
+            gen.writeFieldName(FREE);
+            gen.writeNumber(snapshot.memoryFree);
+            gen.writeFieldName(USED);
+            gen.writeNumber(snapshot.memoryUsed);
+            gen.writeFieldName(ALLOCATED);
+            gen.writeNumber(snapshot.memoryAllocated);
+            gen.writeFieldName(RESERVABLE);
+            gen.writeNumber(snapshot.memoryReservable);
+            gen.writeEndObject();
+
+            gen.writeFieldName(CPU);
+            gen.writeStartObject();
+            gen.writeFieldName(CORES);
+            gen.writeNumber(snapshot.cores);
+            gen.writeFieldName(SYSTEM_LOAD);
+            gen.writeNumber(snapshot.systemLoad);
+            gen.writeFieldName(LAVALINK_LOAD);
+            gen.writeNumber(snapshot.lavalinkLoad);
+            gen.writeEndObject();
+
+            // We can't divide by 0
+            if (framePlayers != 0) {
+                gen.writeFieldName(FRAME_STATS);
+                gen.writeStartObject();
+                gen.writeFieldName(SENT);
+                gen.writeNumber(framesSent / framePlayers);
+                gen.writeFieldName(NULLED);
+                gen.writeNumber(framesNulled / framePlayers);
+                gen.writeFieldName(DEFICIT);
+                gen.writeNumber(totalDeficit / framePlayers);
+                gen.writeFieldName(LATE);
+                gen.writeNumber(framesLate / framePlayers);
+                gen.writeEndObject();
+            }
+            gen.writeEndObject();
+        });
     }
-
 }
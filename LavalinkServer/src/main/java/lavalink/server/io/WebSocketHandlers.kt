@@ -1,128 +1,108 @@
 package lavalink.server.io
 
-import lavalink.server.util.Util
-import org.json.JSONObject
+import lavalink.server.player.DecodedTrackCache
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
-import org.springframework.web.socket.WebSocketSession
-import space.npstr.magma.api.MagmaMember
 import space.npstr.magma.api.MagmaServerUpdate
 
-class WebSocketHandlers(private val contextMap: Map<String, SocketContext>) {
+class WebSocketHandlers(private val decodedTrackCache: DecodedTrackCache) {
 
     companion object {
         private val log: Logger = LoggerFactory.getLogger(WebSocketHandlers::class.java)
     }
 
-    fun voiceUpdate(session: WebSocketSession, json: JSONObject) {
-        val sessionId = json.getString("sessionId")
-        val guildId = json.getString("guildId")
+    fun voiceUpdate(context: SocketContext, message: InboundMessage) {
+        val sessionId = message.required(message.sessionId, "sessionId")
+        val guildId = message.required(message.guildId, "guildId")
 
-        val event = json.getJSONObject("event")
-        val endpoint = event.optString("endpoint")
-        val token = event.getString("token")
+        if (!message.hasEvent) throw IllegalArgumentException("voiceUpdate is missing required field event")
+        val endpoint = message.endpoint
+        val token = message.required(message.token, "event.token")
 
         //discord sometimes send a partial server update missing the endpoint, which can be ignored.
         if (endpoint == null || endpoint.isEmpty()) {
             return
         }
 
-        val sktContext = contextMap[session.id]!!
-        val member = MagmaMember.builder()
-                .userId(sktContext.userId)
-                .guildId(guildId)
-                .build()
         val serverUpdate = MagmaServerUpdate.builder()
                 .sessionId(sessionId)
                 .endpoint(endpoint)
                 .token(token)
                 .build()
-        sktContext.magma.provideVoiceServerUpdate(member, serverUpdate)
+        context.magma.provideVoiceServerUpdate(context.getMember(guildId), serverUpdate)
     }
 
-    fun play(session: WebSocketSession, json: JSONObject) {
-        val ctx = contextMap[session.id]!!
-        val player = ctx.getPlayer(json.getString("guildId"))
-        val noReplace = json.optBoolean("noReplace", false)
+    fun play(context: SocketContext, message: InboundMessage) {
+        val player = context.getPlayer(message.required(message.guildId, "guildId"))
+        val noReplace = message.noReplace ?: false
 
         if (noReplace && player.playingTrack != null) {
             log.info("Skipping play request because of noReplace")
             return
         }
 
-        val track = Util.toAudioTrack(ctx.audioPlayerManager, json.getString("track"))
+        val track = decodedTrackCache.decode(context.audioPlayerManager, message.required(message.track, "track"))!!
 
-        if (json.has("startTime")) {
-            track.position = json.getLong("startTime")
-        }
+        message.startTime?.let { track.position = it }
 
-        player.setPause(json.optBoolean("pause", false))
-        if (json.has("volume")) {
-            player.setVolume(json.getInt("volume"))
-        }
+        player.setPause(message.pause ?: false)
+        message.volume?.let { player.setVolume(it) }
 
         player.play(track)
 
-        val context = contextMap[session.id]!!
-
-        val m = MagmaMember.builder()
-                .userId(context.userId)
-                .guildId(json.getString("guildId"))
-                .build()
-        context.magma.setSendHandler(m, context.getPlayer(json.getString("guildId")))
+        context.magma.setSendHandler(player.member, player)
 
-        SocketServer.sendPlayerUpdate(ctx, player)
+        SocketServer.sendPlayerUpdate(context, player)
     }
 
-    fun stop(session: WebSocketSession, json: JSONObject) {
-        val player = contextMap[session.id]!!.getPlayer(json.getString("guildId"))
+    fun stop(context: SocketContext, message: InboundMessage) {
+        val player = context.getPlayer(message.required(message.guildId, "guildId"))
         player.stop()
     }
 
-    fun pause(session: WebSocketSession, json: JSONObject) {
-        val context = contextMap[session.id]!!
-        val player = context.getPlayer(json.getString("guildId"))
-        player.setPause(json.getBoolean("pause"))
+    fun pause(context: SocketContext, message: InboundMessage) {
+        val player = context.getPlayer(message.required(message.guildId, "guildId"))
+        player.setPause(message.required(message.pause, "pause"))
         SocketServer.sendPlayerUpdate(context, player)
     }
 
-    fun seek(session: WebSocketSession, json: JSONObject) {
-        val context = contextMap[session.id]!!
-        val player = context.getPlayer(json.getString("guildId"))
-        player.seekTo(json.getLong("position"))
+    fun seek(context: SocketContext, message: InboundMessage) {
+        val player = context.getPlayer(message.required(message.guildId, "guildId"))
+        player.seekTo(message.required(message.position, "position"))
         SocketServer.sendPlayerUpdate(context, player)
     }
 
-    fun volume(session: WebSocketSession, json: JSONObject) {
-        val player = contextMap[session.id]!!.getPlayer(json.getString("guildId"))
-        player.setVolume(json.getInt("volume"))
+    fun volume(context: SocketContext, message: InboundMessage) {
+        val player = context.getPlayer(message.required(message.guildId, "guildId"))
+        player.setVolume(message.required(message.volume, "volume"))
     }
 
-    fun equalizer(session: WebSocketSession, json: JSONObject) {
-        val player = contextMap[session.id]!!.getPlayer(json.getString("guildId"))
-        val bands = json.getJSONArray("bands")
+    fun equalizer(context: SocketContext, message: InboundMessage) {
+        val player = context.getPlayer(message.required(message.guildId, "guildId"))
 
-        for (i in 0 until bands.length()) {
-            val band = bands.getJSONObject(i)
-            player.setBandGain(band.getInt("band"), band.getFloat("gain"))
+        message.required(message.bands, "bands").forEach { band ->
+            player.setBandGain(band.band, band.gain)
         }
     }
 
-    fun destroy(session: WebSocketSession, json: JSONObject) {
-        val socketContext = contextMap[session.id]!!
-        val player = socketContext.players.remove(json.getString("guildId"))
-        player?.stop()
-        val mem = MagmaMember.builder()
-                .userId(socketContext.userId)
-                .guildId(json.getString("guildId"))
-                .build()
-        socketContext.magma.removeSendHandler(mem)
-        socketContext.magma.closeConnection(mem)
+    fun destroy(context: SocketContext, message: InboundMessage) {
+        val guildId = message.required(message.guildId, "guildId")
+        val member = context.getMember(guildId)
+        val player = context.players.remove(guildId)
+        player?.destroy()
+        context.magma.removeSendHandler(member)
+        context.magma.closeConnection(member)
+    }
+
+    fun configureResuming(context: SocketContext, message: InboundMessage) {
+        context.resumeKey = message.key
+        message.timeout?.let { context.resumeTimeout = it }
+        message.batchReplay?.let { context.batchReplay = it }
     }
 
-    fun configureResuming(session: WebSocketSession, json: JSONObject) {
-        val socketContext = contextMap[session.id]!!
-        socketContext.resumeKey = json.optString("key", null)
-        if (json.has("timeout")) socketContext.resumeTimeout = json.getLong("timeout")
+    fun configurePlayerUpdates(context: SocketContext, message: InboundMessage) {
+        message.batch?.let { context.setPlayerUpdateBatching(it) }
+        message.adaptive?.let { context.adaptivePlayerUpdates = it }
+        message.interval?.let { context.playerUpdateKeepalive = it }
     }
-}
\ No newline at end of file
+}
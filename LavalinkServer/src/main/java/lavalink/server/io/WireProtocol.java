@@ -0,0 +1,40 @@
+package lavalink.server.io;
+
+import javax.annotation.Nullable;
+
+/**
+ * The encodings a client can choose from for the messages of its websocket session, negotiated with the
+ * {@link #HEADER} handshake header. Both carry the same messages, see {@link CborCodec}.
+ */
+public enum WireProtocol {
+    /** Text frames with JSON, the default */
+    JSON("json"),
+    /** Binary frames with CBOR */
+    CBOR("cbor");
+
+    public static final String HEADER = "Lavalink-Protocol";
+
+    private final String headerValue;
+
+    WireProtocol(String headerValue) {
+        this.headerValue = headerValue;
+    }
+
+    public String getHeaderValue() {
+        return headerValue;
+    }
+
+    /**
+     * @return the protocol requested by a handshake header value, JSON if none was requested, or null if the requested
+     * protocol is not supported
+     */
+    @Nullable
+    public static WireProtocol fromHeader(@Nullable String value) {
+        if (value == null) return JSON;
+
+        for (WireProtocol protocol : values()) {
+            if (protocol.headerValue.equalsIgnoreCase(value.trim())) return protocol;
+        }
+        return null;
+    }
+}
@@ -22,16 +22,20 @@
 
 package lavalink.server.player;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import io.prometheus.client.Counter;
 import lavalink.server.config.ServerConfig;
-import lavalink.server.util.Util;
+import lavalink.server.player.TrackInfoDecoder.DecodedTrackInfo;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -39,21 +43,64 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
 
 @RestController
 public class AudioLoaderRestHandler {
 
     private static final Logger log = LoggerFactory.getLogger(AudioLoaderRestHandler.class);
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+    private static final MediaType NDJSON = MediaType.parseMediaType(NDJSON_VALUE);
+    private static final Counter coalescedLoads = Counter.build()
+            .name("lavalink_loadtracks_coalesced_total")
+            .help("Track loads that joined an identical load which was already in flight")
+            .register();
+
     private final AudioPlayerManager audioPlayerManager;
     private final ServerConfig serverConfig;
+    private final LoadResultCache loadResultCache;
+    private final DecodedTrackCache decodedTrackCache;
+    private final LoadResultEncoder loadResultEncoder;
+    private final ForkJoinPool decodePool;
+    //identifier <-> load in flight
+    private final ConcurrentHashMap<String, CompletableFuture<CoalescedLoad>> pendingLoads = new ConcurrentHashMap<>();
 
-    public AudioLoaderRestHandler(AudioPlayerManager audioPlayerManager, ServerConfig serverConfig) {
+    public AudioLoaderRestHandler(AudioPlayerManager audioPlayerManager, ServerConfig serverConfig,
+                                  LoadResultCache loadResultCache, DecodedTrackCache decodedTrackCache) {
         this.audioPlayerManager = audioPlayerManager;
         this.serverConfig = serverConfig;
+        this.loadResultCache = loadResultCache;
+        this.decodedTrackCache = decodedTrackCache;
+        this.loadResultEncoder = new LoadResultEncoder(audioPlayerManager);
+
+        Integer parallelism = serverConfig.getDecodeTracksParallelism();
+        this.decodePool = new ForkJoinPool(parallelism != null
+                ? parallelism
+                : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        decodePool.shutdown();
     }
 
     private void log(HttpServletRequest request) {
@@ -61,8 +108,8 @@ public class AudioLoaderRestHandler {
         log.info("GET " + path);
     }
 
-    private JSONObject trackToJSON(AudioTrack audioTrack) {
-        AudioTrackInfo trackInfo = audioTrack.getInfo();
+    private JSONObject trackToJSON(DecodedTrackInfo decoded) {
+        AudioTrackInfo trackInfo = decoded.info;
 
         return new JSONObject()
                 .put("title", trackInfo.title)
@@ -71,56 +118,221 @@ public class AudioLoaderRestHandler {
                 .put("identifier", trackInfo.identifier)
                 .put("uri", trackInfo.uri)
                 .put("isStream", trackInfo.isStream)
-                .put("isSeekable", audioTrack.isSeekable())
-                .put("position", audioTrack.getPosition());
+                .put("isSeekable", decoded.isSeekable)
+                .put("position", decoded.position);
     }
 
-    private JSONObject encodeLoadResult(LoadResult result) {
-        JSONObject json = new JSONObject();
-        JSONObject playlist = new JSONObject();
-        JSONArray tracks = new JSONArray();
+    /**
+     * Reads the metadata of an encoded track, only building a full {@link AudioTrack} if the track can't be parsed
+     * directly.
+     */
+    private DecodedTrackInfo decodeInfo(String track) throws IOException {
+        DecodedTrackInfo decoded = TrackInfoDecoder.decode(track);
+        if (decoded != null) return decoded;
 
-        result.tracks.forEach(track -> {
-            JSONObject object = new JSONObject();
-            object.put("info", trackToJSON(track));
+        AudioTrack audioTrack = decodedTrackCache.decode(audioPlayerManager, track);
+        if (audioTrack == null) throw new IOException("No source could decode the track");
 
-            try {
-                String encoded = Util.toMessage(audioPlayerManager, track);
-                object.put("track", encoded);
-                tracks.put(object);
-            } catch (IOException e) {
-                log.warn("Failed to encode a track {}, skipping", track.getIdentifier(), e);
-            }
-        });
+        return DecodedTrackInfo.of(audioTrack);
+    }
 
-        playlist.put("name", result.playlistName);
-        playlist.put("selectedTrack", result.selectedTrack);
+    /**
+     * Loads an identifier, sharing the result with any concurrent load of the same identifier, so that a burst of
+     * identical requests only costs one upstream resolution. If results are cached, the result is encoded and cached
+     * once, before the load stops accepting new requests, and its bytes are shared too.
+     */
+    private CompletionStage<CoalescedLoad> loadCoalesced(String identifier) {
+        CompletableFuture<CoalescedLoad> pending = pendingLoads.get(identifier);
+        if (pending != null) {
+            coalescedLoads.inc();
+            return pending;
+        }
 
-        json.put("playlistInfo", playlist);
-        json.put("loadType", result.loadResultType);
-        json.put("tracks", tracks);
+        CompletableFuture<CoalescedLoad> created = new CompletableFuture<>();
+        pending = pendingLoads.putIfAbsent(identifier, created);
+        if (pending != null) {
+            coalescedLoads.inc();
+            return pending;
+        }
 
-        if (result.loadResultType == ResultStatus.LOAD_FAILED && result.exception != null) {
-            JSONObject exception = new JSONObject();
-            exception.put("message", result.exception.getLocalizedMessage());
-            exception.put("severity", result.exception.severity.toString());
+        try {
+            new AudioLoader(audioPlayerManager).load(identifier).whenComplete((result, throwable) -> {
+                CoalescedLoad load = null;
+                Throwable failure = throwable;
+                if (failure == null) {
+                    try {
+                        load = new CoalescedLoad(result, encodeAndCache(identifier, result));
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
 
-            json.put("exception", exception);
+                // Requests that arrive from now on find the result in the cache
+                pendingLoads.remove(identifier, created);
+                if (failure != null) {
+                    created.completeExceptionally(failure);
+                } else {
+                    created.complete(load);
+                }
+            });
+        } catch (Exception e) {
+            pendingLoads.remove(identifier, created);
+            created.completeExceptionally(e);
         }
 
-        return json;
+        return created;
     }
 
     @GetMapping(value = "/loadtracks", produces = "application/json")
     @ResponseBody
-    public CompletionStage<ResponseEntity<String>> getLoadTracks(HttpServletRequest request,
-                                                                 @RequestParam String identifier) {
+    public CompletionStage<ResponseEntity<StreamingResponseBody>> getLoadTracks(HttpServletRequest request,
+                                                                                @RequestParam String identifier) {
+
+        log(request);
+
+        byte[] cached = loadResultCache.get(identifier);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(jsonResponse(out -> out.write(cached)));
+        }
+
+        return loadCoalesced(identifier)
+                .thenApply(load -> {
+                    if (load.encoded == null) {
+                        return jsonResponse(out -> loadResultEncoder.write(load.result, out));
+                    }
+
+                    return jsonResponse(out -> out.write(load.encoded));
+                });
+    }
+
+    /**
+     * Cached results have to be fully encoded anyway, so there is nothing to gain from streaming them.
+     *
+     * @return the encoded result, null if results aren't cached
+     */
+    @Nullable
+    private byte[] encodeAndCache(String identifier, LoadResult result) {
+        if (!loadResultCache.isEnabled()) return null;
+
+        byte[] encoded;
+        try {
+            encoded = loadResultEncoder.encode(result);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        loadResultCache.put(identifier, result.loadResultType, encoded);
+        return encoded;
+    }
+
+    private static ResponseEntity<StreamingResponseBody> jsonResponse(StreamingResponseBody body) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .body(body);
+    }
+
+    /**
+     * Loads a JSON array of identifiers concurrently. The response is a JSON object keyed by identifier, which is
+     * written as the individual loads complete.
+     */
+    @PostMapping(value = "/loadtracks", consumes = "application/json", produces = "application/json")
+    @ResponseBody
+    public ResponseEntity<StreamingResponseBody> postLoadTracks(HttpServletRequest request, @RequestBody String body) {
 
         log(request);
 
-        return new AudioLoader(audioPlayerManager).load(identifier)
-                .thenApply(this::encodeLoadResult)
-                .thenApply(loadResultJson -> new ResponseEntity<>(loadResultJson.toString(), HttpStatus.OK));
+        JSONArray requestJSON = new JSONArray(body);
+        Set<String> identifiers = new LinkedHashSet<>();
+        for (int i = 0; i < requestJSON.length(); i++) {
+            identifiers.add(requestJSON.getString(i));
+        }
+
+        return jsonResponse(out -> writeLoadResults(identifiers, out));
+    }
+
+    private void writeLoadResults(Set<String> identifiers, OutputStream out) throws IOException {
+        Integer configuredParallelism = serverConfig.getLoadTracksBatchParallelism();
+        int parallelism = configuredParallelism != null ? Math.max(1, configuredParallelism) : 8;
+
+        Iterator<String> pending = identifiers.iterator();
+        BlockingQueue<BatchLoad> completed = new LinkedBlockingQueue<>();
+        int inFlight = 0;
+
+        try (JsonGenerator gen = LoadResultEncoder.JSON_FACTORY.createGenerator(out)) {
+            gen.writeStartObject();
+
+            while (pending.hasNext() || inFlight > 0) {
+                while (pending.hasNext() && inFlight < parallelism) {
+                    String identifier = pending.next();
+                    inFlight++;
+
+                    byte[] cached = loadResultCache.get(identifier);
+                    if (cached != null) {
+                        completed.add(new BatchLoad(identifier, cached, null));
+                        continue;
+                    }
+
+                    loadCoalesced(identifier).whenComplete((load, throwable) -> {
+                        if (throwable != null) {
+                            log.error("Failed to load {}", identifier, throwable);
+                            LoadResult failed = new LoadResult(new FriendlyException("Failed to load the identifier",
+                                    FriendlyException.Severity.FAULT, throwable));
+                            completed.add(new BatchLoad(identifier, null, failed));
+                        } else {
+                            completed.add(new BatchLoad(identifier, load.encoded, load.result));
+                        }
+                    });
+                }
+
+                // Let the client have what we have so far, instead of sitting on it while we wait
+                if (completed.isEmpty()) gen.flush();
+
+                BatchLoad load;
+                try {
+                    load = completed.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while loading tracks");
+                }
+                inFlight--;
+
+                gen.writeFieldName(load.identifier);
+                if (load.encoded != null) {
+                    gen.writeRawValue(new String(load.encoded, StandardCharsets.UTF_8));
+                } else {
+                    loadResultEncoder.writeJson(load.result, gen);
+                }
+            }
+
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * The result of a load shared by the requests it was coalesced from, with its encoding if results are cached.
+     */
+    private static class CoalescedLoad {
+        private final LoadResult result;
+        @Nullable
+        private final byte[] encoded;
+
+        private CoalescedLoad(LoadResult result, @Nullable byte[] encoded) {
+            this.result = result;
+            this.encoded = encoded;
+        }
+    }
+
+    private static class BatchLoad {
+        private final String identifier;
+        @Nullable
+        private final byte[] encoded;
+        @Nullable
+        private final LoadResult result;
+
+        private BatchLoad(String identifier, @Nullable byte[] encoded, @Nullable LoadResult result) {
+            this.identifier = identifier;
+            this.encoded = encoded;
+            this.result = result;
+        }
     }
 
     @GetMapping(value = "/decodetrack", produces = "application/json")
@@ -130,9 +342,9 @@ public class AudioLoaderRestHandler {
 
         log(request);
 
-        AudioTrack audioTrack = Util.toAudioTrack(audioPlayerManager, track);
+        DecodedTrackInfo decoded = decodeInfo(track);
 
-        return new ResponseEntity<>(trackToJSON(audioTrack).toString(), HttpStatus.OK);
+        return new ResponseEntity<>(trackToJSON(decoded).toString(), HttpStatus.OK);
     }
 
     @PostMapping(value = "/decodetracks", consumes = "application/json", produces = "application/json")
@@ -147,9 +359,9 @@ public class AudioLoaderRestHandler {
 
         for (int i = 0; i < requestJSON.length(); i++) {
             String track = requestJSON.getString(i);
-            AudioTrack audioTrack = Util.toAudioTrack(audioPlayerManager, track);
+            DecodedTrackInfo decoded = decodeInfo(track);
 
-            JSONObject infoJSON = trackToJSON(audioTrack);
+            JSONObject infoJSON = trackToJSON(decoded);
             JSONObject trackJSON = new JSONObject()
                     .put("track", track)
                     .put("info", infoJSON);
@@ -159,4 +371,87 @@ public class AudioLoaderRestHandler {
 
         return new ResponseEntity<>(responseJSON.toString(), HttpStatus.OK);
     }
+
+    /**
+     * Decodes the tracks on a bounded pool and writes them as newline delimited JSON, in the order of the request.
+     * Tracks that fail to decode are reported in place instead of failing the whole request.
+     */
+    @PostMapping(value = "/decodetracks", params = "stream=true", consumes = "application/json",
+            produces = NDJSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<StreamingResponseBody> postDecodeTracksStreaming(HttpServletRequest request,
+                                                                           @RequestBody String body) {
+
+        log(request);
+
+        JSONArray requestJSON = new JSONArray(body);
+
+        return ResponseEntity.ok()
+                .contentType(NDJSON)
+                .body(out -> writeDecodedTracks(requestJSON, out));
+    }
+
+    private void writeDecodedTracks(JSONArray tracks, OutputStream out) throws IOException {
+        // Bounds the amount of decoded tracks waiting for their turn to be written
+        int window = decodePool.getParallelism() * 4;
+        ArrayDeque<CompletableFuture<DecodedTrack>> inFlight = new ArrayDeque<>(window);
+        int next = 0;
+
+        try (JsonGenerator gen = LoadResultEncoder.JSON_FACTORY.createGenerator(out)) {
+            gen.setRootValueSeparator(null);
+
+            while (next < tracks.length() || !inFlight.isEmpty()) {
+                while (next < tracks.length() && inFlight.size() < window) {
+                    Object track = tracks.get(next++);
+                    inFlight.add(CompletableFuture.supplyAsync(() -> decodeForBatch(track), decodePool));
+                }
+
+                CompletableFuture<DecodedTrack> head = inFlight.poll();
+                // Let the client have what we have so far, instead of sitting on it while we wait
+                if (!head.isDone()) gen.flush();
+
+                head.join().write(gen);
+                gen.writeRaw('\n');
+            }
+        }
+    }
+
+    private DecodedTrack decodeForBatch(Object track) {
+        if (!(track instanceof String)) {
+            return new DecodedTrack(null, null, "Expected a string, got " + track);
+        }
+
+        try {
+            return new DecodedTrack((String) track, decodeInfo((String) track), null);
+        } catch (Exception e) {
+            log.debug("Failed to decode track {}", track, e);
+            return new DecodedTrack((String) track, null, e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    private static class DecodedTrack {
+        @Nullable
+        private final String track;
+        @Nullable
+        private final DecodedTrackInfo decoded;
+        @Nullable
+        private final String error;
+
+        private DecodedTrack(@Nullable String track, @Nullable DecodedTrackInfo decoded, @Nullable String error) {
+            this.track = track;
+            this.decoded = decoded;
+            this.error = error;
+        }
+
+        private void write(JsonGenerator gen) throws IOException {
+            gen.writeStartObject();
+            if (track != null) gen.writeStringField("track", track);
+            if (decoded != null) {
+                gen.writeFieldName("info");
+                LoadResultEncoder.writeTrackInfo(gen, decoded);
+            }
+            if (error != null) gen.writeStringField("error", error);
+            gen.writeEndObject();
+        }
+    }
 }
@@ -0,0 +1,99 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import io.prometheus.client.Gauge;
+import lavalink.server.config.ServerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+/**
+ * Hands out the audio player managers used by websocket connections.
+ * <p>
+ * By default every connection gets a dedicated manager, with its own source managers, http clients and thread pools.
+ * With a pool size configured, connections instead share a small, fixed number of managers. Shared managers are
+ * reference counted: they are created when the first connection acquires them and shut down when the last connection
+ * using them releases them.
+ */
+@Component
+public class AudioPlayerManagerPool {
+
+    private static final Logger log = LoggerFactory.getLogger(AudioPlayerManagerPool.class);
+
+    private static final Gauge activeManagers = Gauge.build()
+            .name("lavalink_audio_player_managers")
+            .help("Audio player managers currently in use by websocket connections")
+            .register();
+
+    private final Supplier<AudioPlayerManager> audioPlayerManagerSupplier;
+    private final DecodedTrackCache decodedTrackCache;
+    private final Slot[] slots;
+
+    public AudioPlayerManagerPool(Supplier<AudioPlayerManager> audioPlayerManagerSupplier, ServerConfig serverConfig,
+                                  DecodedTrackCache decodedTrackCache) {
+        this.audioPlayerManagerSupplier = audioPlayerManagerSupplier;
+        this.decodedTrackCache = decodedTrackCache;
+
+        Integer poolSize = serverConfig.getPlayerManagerPoolSize();
+        this.slots = new Slot[poolSize != null ? Math.max(0, poolSize) : 0];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+
+        if (slots.length > 0) {
+            log.info("Websocket connections share a pool of {} audio player managers", slots.length);
+        }
+    }
+
+    public synchronized AudioPlayerManager acquire() {
+        if (slots.length == 0) {
+            activeManagers.inc();
+            return audioPlayerManagerSupplier.get();
+        }
+
+        Slot leastUsed = slots[0];
+        for (Slot slot : slots) {
+            if (slot.references < leastUsed.references) leastUsed = slot;
+        }
+
+        if (leastUsed.manager == null) {
+            leastUsed.manager = audioPlayerManagerSupplier.get();
+            activeManagers.inc();
+        }
+        leastUsed.references++;
+
+        return leastUsed.manager;
+    }
+
+    /**
+     * Gives back a manager obtained from {@link #acquire()}, shutting it down if no other connection uses it.
+     */
+    public synchronized void release(AudioPlayerManager audioPlayerManager) {
+        for (Slot slot : slots) {
+            if (slot.manager != audioPlayerManager) continue;
+
+            if (--slot.references == 0) {
+                slot.manager = null;
+                shutdown(audioPlayerManager);
+            }
+            return;
+        }
+
+        // Dedicated to a single connection
+        shutdown(audioPlayerManager);
+    }
+
+    private void shutdown(AudioPlayerManager audioPlayerManager) {
+        activeManagers.dec();
+        // The cached tracks of the manager would keep it from being collected
+        decodedTrackCache.invalidate(audioPlayerManager);
+        audioPlayerManager.shutdown();
+    }
+
+    private static class Slot {
+        private AudioPlayerManager manager = null;
+        private int references = 0;
+    }
+}
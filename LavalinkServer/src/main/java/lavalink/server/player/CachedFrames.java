@@ -0,0 +1,130 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The complete sequence of 20ms opus frames of a track. Frames are stored back to back in a single array.
+ */
+final class CachedFrames {
+
+    static final int FRAME_DURATION_MS = 20;
+
+    private final byte[] data;
+    // Frame i spans from offsets[i] to offsets[i + 1]
+    private final int[] offsets;
+
+    private CachedFrames(byte[] data, int[] offsets) {
+        this.data = data;
+        this.offsets = offsets;
+    }
+
+    int getFrameCount() {
+        return offsets.length - 1;
+    }
+
+    long getSize() {
+        return data.length + 4L * offsets.length;
+    }
+
+    FrameSource play(AudioTrack track) {
+        return new Playback(track);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(offsets.length);
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        out.write(data);
+    }
+
+    static CachedFrames readFrom(DataInputStream in) throws IOException {
+        int[] offsets = new int[in.readInt()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = in.readInt();
+        }
+        byte[] data = new byte[offsets[offsets.length - 1]];
+        in.readFully(data);
+        return new CachedFrames(data, offsets);
+    }
+
+    /**
+     * Collects the frames of a track as it is played.
+     */
+    static class Builder {
+        private byte[] data = new byte[64 * 1024];
+        private int[] offsets = new int[1024];
+        private int frames = 0;
+
+        void append(byte[] frame, int length) {
+            int end = offsets[frames];
+            if (end + length > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, end + length));
+            if (frames + 2 > offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+
+            System.arraycopy(frame, 0, data, end, length);
+            offsets[++frames] = end + length;
+        }
+
+        long getSize() {
+            return offsets[frames] + 4L * (frames + 1);
+        }
+
+        CachedFrames build() {
+            return new CachedFrames(Arrays.copyOf(data, offsets[frames]), Arrays.copyOf(offsets, frames + 1));
+        }
+    }
+
+    private class Playback implements FrameSource {
+        private final AudioTrack track;
+        private volatile int next;
+        private int provided = 0;
+
+        private Playback(AudioTrack track) {
+            this.track = track;
+            seekTo(track.getPosition());
+        }
+
+        @Override
+        public AudioTrack getTrack() {
+            return track;
+        }
+
+        @Override
+        public long getPosition() {
+            return (long) next * FRAME_DURATION_MS;
+        }
+
+        @Override
+        public void seekTo(long position) {
+            next = (int) Math.max(0, Math.min(getFrameCount(), position / FRAME_DURATION_MS));
+        }
+
+        @Override
+        public boolean provide(ByteBuffer buffer) {
+            int frame = next;
+            if (frame >= getFrameCount()) return false;
+
+            buffer.clear();
+            buffer.put(data, offsets[frame], offsets[frame + 1] - offsets[frame]);
+            next = frame + 1;
+            provided++;
+            return true;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return next >= getFrameCount();
+        }
+
+        @Override
+        public void close() {
+            OpusFrameCache.onServed(provided);
+        }
+    }
+}
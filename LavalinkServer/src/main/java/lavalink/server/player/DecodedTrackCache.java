@@ -0,0 +1,106 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import lavalink.server.config.CacheConfig;
+import lavalink.server.util.BoundedCache;
+import lavalink.server.util.Util;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Decodes base64 encoded tracks, remembering the result so that clients sending the same track over and over again
+ * don't cause the binary track format to be parsed each time.
+ * <p>
+ * Cached tracks are never handed out, every hit returns a fresh clone. Tracks are bound to the source managers of the
+ * audio player manager that decoded them, so the manager is part of the cache key, and the tracks of a manager are
+ * removed when it is shut down, see {@link #invalidate(AudioPlayerManager)}. Returned tracks carry their encoded form
+ * as user data, see {@link Util#toMessage(AudioPlayerManager, AudioTrack)}.
+ */
+@Component
+public class DecodedTrackCache {
+
+    private final CacheConfig.DecodedTracks config;
+    // Null if disabled, so that the size of a disabled cache isn't validated
+    @Nullable
+    private final BoundedCache<Key, CachedTrack> cache;
+
+    public DecodedTrackCache(CacheConfig cacheConfig) {
+        this.config = cacheConfig.getDecodedTracks();
+        this.cache = config.isEnabled() ? new BoundedCache<>("decodedtracks", config.getMaxSize()) : null;
+    }
+
+    @Nullable
+    public AudioTrack decode(AudioPlayerManager audioPlayerManager, String encoded) throws IOException {
+        AudioTrack track = decodeTrack(audioPlayerManager, encoded);
+
+        // Remember what the client sent us, so events about this track don't have to encode it again
+        if (track != null) track.setUserData(encoded);
+        return track;
+    }
+
+    @Nullable
+    private AudioTrack decodeTrack(AudioPlayerManager audioPlayerManager, String encoded) throws IOException {
+        if (cache == null) return Util.toAudioTrack(audioPlayerManager, encoded);
+
+        Key key = new Key(audioPlayerManager, encoded);
+        CachedTrack cached = cache.get(key);
+        if (cached != null) return cached.newInstance();
+
+        AudioTrack track = Util.toAudioTrack(audioPlayerManager, encoded);
+        if (track != null) {
+            cache.put(key, new CachedTrack(track.makeClone(), track.getPosition()), config.getTtlMs());
+        }
+
+        return track;
+    }
+
+    /**
+     * Removes the tracks decoded by the manager, which must not be used anymore.
+     */
+    public void invalidate(AudioPlayerManager audioPlayerManager) {
+        if (cache != null) cache.invalidateIf(key -> key.audioPlayerManager == audioPlayerManager);
+    }
+
+    private static class CachedTrack {
+        // Never played, only used to create clones from
+        private final AudioTrack prototype;
+        private final long position;
+
+        private CachedTrack(AudioTrack prototype, long position) {
+            this.prototype = prototype;
+            this.position = position;
+        }
+
+        private AudioTrack newInstance() {
+            AudioTrack track = prototype.makeClone();
+            if (position != 0) track.setPosition(position);
+            return track;
+        }
+    }
+
+    private static class Key {
+        private final AudioPlayerManager audioPlayerManager;
+        private final String encoded;
+
+        private Key(AudioPlayerManager audioPlayerManager, String encoded) {
+            this.audioPlayerManager = audioPlayerManager;
+            this.encoded = encoded;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return audioPlayerManager == other.audioPlayerManager && encoded.equals(other.encoded);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(audioPlayerManager) + encoded.hashCode();
+        }
+    }
+}
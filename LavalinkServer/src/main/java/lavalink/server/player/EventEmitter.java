@@ -28,12 +28,13 @@ import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import lavalink.server.io.OutboundMessage;
 import lavalink.server.io.SocketServer;
 import lavalink.server.util.Util;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 
 public class EventEmitter extends AudioEventAdapter {
@@ -49,57 +50,33 @@ public class EventEmitter extends AudioEventAdapter {
 
     @Override
     public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
-        JSONObject out = new JSONObject();
-        out.put("op", "event");
-        out.put("type", "TrackEndEvent");
-        out.put("guildId", linkPlayer.getGuildId());
-        try {
-            out.put("track", Util.toMessage(audioPlayerManager, track));
-        } catch (IOException e) {
-            out.put("track", JSONObject.NULL);
-        }
-
-        out.put("reason", endReason.toString());
-
-        linkPlayer.getSocket().send(out);
+        linkPlayer.getSocket().send(
+                OutboundMessage.trackEnd(linkPlayer.getGuildId(), encodeTrack(track), endReason.toString()));
     }
 
     // These exceptions are already logged by Lavaplayer
     @Override
     public void onTrackException(AudioPlayer player, AudioTrack track, FriendlyException exception) {
-        JSONObject out = new JSONObject();
-        out.put("op", "event");
-        out.put("type", "TrackExceptionEvent");
-        out.put("guildId", linkPlayer.getGuildId());
-        try {
-            out.put("track", Util.toMessage(audioPlayerManager, track));
-        } catch (IOException e) {
-            out.put("track", JSONObject.NULL);
-        }
-
-        out.put("error", exception.getMessage());
-
-        linkPlayer.getSocket().send(out);
+        linkPlayer.getSocket().send(
+                OutboundMessage.trackException(linkPlayer.getGuildId(), encodeTrack(track), exception.getMessage()));
     }
 
     @Override
     public void onTrackStuck(AudioPlayer player, AudioTrack track, long thresholdMs) {
         log.warn(track.getInfo().title + " got stuck! Threshold surpassed: " + thresholdMs);
 
-        JSONObject out = new JSONObject();
-        out.put("op", "event");
-        out.put("type", "TrackStuckEvent");
-        out.put("guildId", linkPlayer.getGuildId());
+        linkPlayer.getSocket().send(
+                OutboundMessage.trackStuck(linkPlayer.getGuildId(), encodeTrack(track), thresholdMs));
+        SocketServer.Companion.sendPlayerUpdate(linkPlayer.getSocket(), linkPlayer);
+    }
+
+    @Nullable
+    private String encodeTrack(AudioTrack track) {
         try {
-            out.put("track", Util.toMessage(audioPlayerManager, track));
+            return Util.toMessage(audioPlayerManager, track);
         } catch (IOException e) {
-            out.put("track", JSONObject.NULL);
+            return null;
         }
-
-        out.put("thresholdMs", thresholdMs);
-
-        linkPlayer.getSocket().send(out);
-        SocketServer.Companion.sendPlayerUpdate(linkPlayer.getSocket(), linkPlayer);
     }
 
 }
@@ -0,0 +1,41 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Opus frames a {@link Player} sends instead of those of its own audio player, for tracks whose frames are already
+ * available elsewhere, like a {@link SharedStream} or the {@link OpusFrameCache}.
+ */
+interface FrameSource {
+
+    /**
+     * @return the track the player was asked to play
+     */
+    AudioTrack getTrack();
+
+    long getPosition();
+
+    /**
+     * Does nothing if the source can't seek, like a live stream.
+     */
+    void seekTo(long position);
+
+    /**
+     * Copies the next frame into the buffer, leaving it ready to be flipped.
+     *
+     * @return false if there is no frame available right now
+     */
+    boolean provide(ByteBuffer buffer);
+
+    /**
+     * @return whether all frames have been provided, and the track ended
+     */
+    boolean isFinished();
+
+    /**
+     * Called once the player is done with the source.
+     */
+    void close();
+}
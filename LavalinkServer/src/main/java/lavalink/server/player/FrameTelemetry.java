@@ -0,0 +1,227 @@
+package lavalink.server.player;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the frames a player provided, nulled, and provided late, in a sliding window of one second slots. Unlike
+ * {@link AudioLossCounter} nothing is discarded around track switches, so short gaps stay visible. Each completed
+ * second is also added to the node wide Prometheus metrics. Until a track has provided its first frame it is loading,
+ * which is measured as its start latency instead of as nulled frames.
+ * <p>
+ * Writers are the audio send thread and, once, the thread destroying the player, see {@link #close()}. Readers never
+ * block them: a slot is validated by reading its second before and after its counts, and skipped if it was reused in
+ * between.
+ */
+public class FrameTelemetry {
+
+    public static final int WINDOW_SECONDS = 60;
+
+    private static final Counter frames = Counter.build()
+            .name("lavalink_audio_frames_total")
+            .help("Frames requested from playing players, by whether one was provided in time")
+            .labelNames("result") // provided, nulled, late
+            .register();
+    private static final Counter.Child providedFrames = frames.labels("provided");
+    private static final Counter.Child nulledFrames = frames.labels("nulled");
+    private static final Counter.Child lateFrames = frames.labels("late");
+    private static final Histogram nulledPerSecond = Histogram.build()
+            .name("lavalink_audio_nulled_frames_per_second")
+            .help("Frames per second a playing player had no audio for, out of 50")
+            .buckets(0, 1, 5, 10, 25, 49)
+            .register();
+    private static final Histogram gaps = Histogram.build()
+            .name("lavalink_audio_gap_seconds")
+            .help("Durations of consecutive nulled frames of playing players")
+            .buckets(0.02, 0.1, 0.25, 0.5, 1, 3, 10)
+            .register();
+    private static final Histogram trackStarts = Histogram.build()
+            .name("lavalink_audio_track_start_seconds")
+            .help("Durations between a track being played and its first frame")
+            .buckets(0.1, 0.25, 0.5, 1, 2, 5, 10)
+            .register();
+
+    // A frame is due every 20ms, a call taking longer than that on top of it delays the audio
+    private static final long LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(40);
+    // Longer pauses between calls mean the player wasn't polled at all, e.g. because it was disconnected
+    private static final long RESTART_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int SECOND = 0;
+    private static final int PROVIDED = 1;
+    private static final int NULLED = 2;
+    private static final int LATE = 3;
+    private static final int FIELDS = 4;
+
+    private final AtomicLongArray slots = new AtomicLongArray(WINDOW_SECONDS * FIELDS);
+
+    // All guarded by this, only contended while the player is destroyed
+    private long currentSecond = -1;
+    private int currentSlot = 0;
+    private long lastCallNanos = 0;
+    private long gapStartNanos = 0;
+    private long loadStartNanos = 0;
+
+    FrameTelemetry() {
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            slots.set(i * FIELDS + SECOND, -1);
+        }
+    }
+
+    /**
+     * Records a call to {@link Player#canProvide()}.
+     *
+     * @param started whether the playing track has provided a frame before
+     */
+    synchronized void record(boolean provided, boolean playing, boolean started) {
+        record(provided, playing, started, System.nanoTime(), System.currentTimeMillis() / 1000);
+    }
+
+    synchronized void record(boolean provided, boolean playing, boolean started, long nanoTime, long epochSecond) {
+        if (!playing) {
+            // Nothing is expected from paused or idle players
+            flush(nanoTime);
+            return;
+        }
+
+        long sinceLastCall = nanoTime - lastCallNanos;
+        boolean late = lastCallNanos != 0 && sinceLastCall > LATE_NANOS && sinceLastCall < RESTART_NANOS;
+        lastCallNanos = nanoTime;
+
+        if (started) {
+            loadStartNanos = 0;
+            if (provided) {
+                endGap(nanoTime);
+            } else if (gapStartNanos == 0) {
+                gapStartNanos = nanoTime;
+            }
+        } else {
+            // The previous track ended during a gap
+            endGap(nanoTime);
+            if (provided && loadStartNanos != 0) {
+                trackStarts.observe((nanoTime - loadStartNanos) / 1e9);
+                loadStartNanos = 0;
+            } else if (!provided && loadStartNanos == 0) {
+                loadStartNanos = nanoTime;
+            }
+        }
+
+        int base = slotOf(epochSecond) * FIELDS;
+        if (provided) {
+            increment(base + PROVIDED);
+        } else if (started) {
+            // A track that is still loading isn't missing any audio
+            increment(base + NULLED);
+        }
+        if (late) increment(base + LATE);
+    }
+
+    /**
+     * Ends the gap and publishes the second in progress, if any, once the player is destroyed.
+     */
+    synchronized void close() {
+        flush(System.nanoTime());
+    }
+
+    private void flush(long nanoTime) {
+        endGap(nanoTime);
+        lastCallNanos = 0;
+        loadStartNanos = 0;
+        if (currentSecond != -1) {
+            publish(currentSlot * FIELDS);
+            currentSecond = -1;
+        }
+    }
+
+    private void endGap(long nanoTime) {
+        if (gapStartNanos == 0) return;
+
+        gaps.observe((nanoTime - gapStartNanos) / 1e9);
+        gapStartNanos = 0;
+    }
+
+    /**
+     * @return the totals of the last completed seconds, at most {@link #WINDOW_SECONDS}
+     */
+    public Totals getLastSeconds(int seconds) {
+        return getLastSeconds(seconds, System.currentTimeMillis() / 1000);
+    }
+
+    Totals getLastSeconds(int seconds, long epochSecond) {
+        long provided = 0;
+        long nulled = 0;
+        long late = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            int base = i * FIELDS;
+            long second = slots.get(base + SECOND);
+            if (second >= epochSecond || second < epochSecond - seconds) continue;
+
+            long slotProvided = slots.get(base + PROVIDED);
+            long slotNulled = slots.get(base + NULLED);
+            long slotLate = slots.get(base + LATE);
+            // Reused by the writer while reading
+            if (slots.get(base + SECOND) != second) continue;
+
+            provided += slotProvided;
+            nulled += slotNulled;
+            late += slotLate;
+        }
+        return new Totals(provided, nulled, late);
+    }
+
+    private int slotOf(long epochSecond) {
+        if (epochSecond == currentSecond) return currentSlot;
+
+        if (currentSecond != -1) publish(currentSlot * FIELDS);
+
+        currentSecond = epochSecond;
+        currentSlot = (int) (epochSecond % WINDOW_SECONDS);
+        int base = currentSlot * FIELDS;
+        // Invalidate the slot first, so readers don't mix the old second with the new counts
+        slots.set(base + SECOND, -1);
+        slots.set(base + PROVIDED, 0);
+        slots.set(base + NULLED, 0);
+        slots.set(base + LATE, 0);
+        slots.set(base + SECOND, epochSecond);
+        return currentSlot;
+    }
+
+    private void publish(int base) {
+        long nulled = slots.get(base + NULLED);
+        providedFrames.inc(slots.get(base + PROVIDED));
+        nulledFrames.inc(nulled);
+        lateFrames.inc(slots.get(base + LATE));
+        nulledPerSecond.observe(nulled);
+    }
+
+    private void increment(int index) {
+        // Writers hold the lock, no need for an atomic read-modify-write
+        slots.lazySet(index, slots.get(index) + 1);
+    }
+
+    public static class Totals {
+        private final long provided;
+        private final long nulled;
+        private final long late;
+
+        private Totals(long provided, long nulled, long late) {
+            this.provided = provided;
+            this.nulled = nulled;
+            this.late = late;
+        }
+
+        public long getProvided() {
+            return provided;
+        }
+
+        public long getNulled() {
+            return nulled;
+        }
+
+        public long getLate() {
+            return late;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package lavalink.server.player;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import lavalink.server.config.CacheConfig;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the bytes of the remote audio files that tracks have downloaded, see {@link CacheConfig.HttpRanges}. Files are
+ * split into chunks of {@link #CHUNK_SIZE} bytes, each of which is written to its own file once it has been downloaded
+ * completely, and memory-mapped when it is read. The least recently used chunks are deleted once the directory exceeds
+ * its limit.
+ * <p>
+ * The cache sits in the HTTP clients of the source managers, see {@link #configure(HttpClientBuilder)} and
+ * {@link RangeCachingRequestExecutor}. Files are told apart by their length and their
+ * {@code ETag} and {@code Last-Modified} headers.
+ */
+@Component
+public class HttpRangeCache {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpRangeCache.class);
+
+    private static final Counter readBytes = Counter.build()
+            .name("lavalink_http_cache_read_bytes_total")
+            .help("Bytes of cacheable remote audio files read by tracks, by where they were read from")
+            .labelNames("source") // disk, network
+            .register();
+    private static final Gauge diskBytesGauge = Gauge.build()
+            .name("lavalink_http_cache_disk_bytes")
+            .help("Size of the cached chunks of remote audio files")
+            .register();
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_RESOURCES = 10000;
+    private static final String FILE_SUFFIX = ".chunk";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long ABANDONED_TEMP_MILLIS = 60_000;
+
+    private final CacheConfig.HttpRanges config;
+    private final Path directory;
+    @Nullable
+    private final ExecutorService writer;
+
+    // All guarded by this, in least recently used order
+    private final LinkedHashMap<String, Long> chunks = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Resource> resources = new LinkedHashMap<String, Resource>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Resource> eldest) {
+            return size() > MAX_RESOURCES;
+        }
+    };
+    private long diskBytes = 0;
+
+    public HttpRangeCache(CacheConfig cacheConfig) {
+        this.config = cacheConfig.getHttpRanges();
+        this.directory = Paths.get(config.getDirectory());
+        this.writer = config.isEnabled() ? Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "http-cache-writer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+
+        if (config.isEnabled()) clearDirectory(directory);
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * Puts the cache between an HTTP client built by the builder and the network. lavaplayer creates the builders of
+     * its source managers and only lets them be configured, and HttpClient only lets the request executor of an
+     * existing builder be replaced, so a connection is leased and connected before a cached range is served.
+     */
+    public void configure(HttpClientBuilder builder) {
+        builder.setRequestExecutor(new RangeCachingRequestExecutor(this));
+    }
+
+    static void onRead(boolean fromDisk, int bytes) {
+        readBytes.labels(fromDisk ? "disk" : "network").inc(bytes);
+    }
+
+    @Nullable
+    synchronized Resource getResource(String key) {
+        return resources.get(key);
+    }
+
+    /**
+     * Records the length, type and validators of a file, as reported by a response. If the length or a validator
+     * changed, the file changed, and its cached chunks are removed.
+     */
+    Resource putResource(String key, long length, @Nullable String contentType, @Nullable String etag,
+                         @Nullable String lastModified) {
+        Resource resource = new Resource(key, length, contentType, etag, lastModified);
+        synchronized (this) {
+            Resource previous = resources.put(key, resource);
+            if (previous == null || previous.isVersion(length, etag, lastModified)) return resource;
+        }
+
+        removeChunks(key);
+        return resource;
+    }
+
+    /**
+     * Forgets a file that changed, along with its cached chunks.
+     */
+    void invalidate(Resource resource) {
+        synchronized (this) {
+            if (resources.get(resource.key) == resource) resources.remove(resource.key);
+        }
+        removeChunks(resource.key);
+    }
+
+    private void removeChunks(String key) {
+        List<String> removed = new ArrayList<>();
+        synchronized (this) {
+            String prefix = prefixOf(key);
+            Iterator<Map.Entry<String, Long>> iterator = chunks.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> chunk = iterator.next();
+                if (!chunk.getKey().startsWith(prefix)) continue;
+
+                iterator.remove();
+                addDiskBytes(-chunk.getValue());
+                removed.add(chunk.getKey());
+            }
+        }
+
+        removed.forEach(this::deleteFile);
+    }
+
+    synchronized boolean contains(Resource resource, int chunk) {
+        return chunks.containsKey(nameOf(resource.key, chunk));
+    }
+
+    /**
+     * @return the end of the cached bytes of the file that start at the position, exclusive, the position itself if
+     * nothing is cached there
+     */
+    synchronized long getCachedEnd(Resource resource, long position) {
+        if (position >= resource.length) return position;
+
+        int chunk = (int) (position / CHUNK_SIZE);
+        while (chunks.get(nameOf(resource.key, chunk)) != null) {
+            chunk++;
+        }
+        return Math.max(position, Math.min(resource.length, (long) chunk * CHUNK_SIZE));
+    }
+
+    /**
+     * Maps a cached chunk for reading. The mapping stays valid even if the chunk is evicted while it is read.
+     */
+    ByteBuffer map(Resource resource, int chunk) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(nameOf(resource.key, chunk)))) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Creates the file a chunk is appended to while it is downloaded, to be passed to {@link #store} once it is
+     * complete or to {@link #discard(Path)} otherwise.
+     *
+     * @return null if another download is writing the chunk
+     */
+    @Nullable
+    Path createTempFile(Resource resource, int chunk) {
+        Path temp = directory.resolve(nameOf(resource.key, chunk) + TEMP_SUFFIX);
+        try {
+            Files.createFile(temp);
+            return temp;
+        } catch (FileAlreadyExistsException e) {
+            // Left behind if a download wasn't closed, taken over once it hasn't been written to for a while
+            try {
+                long idle = System.currentTimeMillis() - Files.getLastModifiedTime(temp).toMillis();
+                if (idle < ABANDONED_TEMP_MILLIS) return null;
+                Files.write(temp, new byte[0]);
+                return temp;
+            } catch (IOException e2) {
+                log.warn("Failed to take over chunk {} of {}", chunk, resource.key, e2);
+                return null;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to create a file for chunk {} of {}", chunk, resource.key, e);
+            return null;
+        }
+    }
+
+    void discard(Path temp) {
+        deleteFile(temp.getFileName().toString());
+    }
+
+    /**
+     * Adds a chunk that was written to a temporary file completely in the background.
+     */
+    void store(Resource resource, int chunk, Path temp, long size) {
+        if (writer == null) {
+            discard(temp);
+            return;
+        }
+
+        writer.execute(() -> {
+            String name = nameOf(resource.key, chunk);
+            try {
+                // A download that took the file over would have appended to it too
+                if (Files.size(temp) != size) {
+                    discard(temp);
+                    return;
+                }
+                // Replaces the directory entry only, chunks that are being read stay intact
+                Files.move(temp, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                log.warn("Failed to store chunk {} of {}", chunk, resource.key, e);
+                discard(temp);
+                return;
+            }
+
+            List<String> evicted = new ArrayList<>();
+            synchronized (this) {
+                Resource current = resources.get(resource.key);
+                if (current == null || !current.isVersion(resource.length, resource.etag, resource.lastModified)) {
+                    evicted.add(name);
+                } else {
+                    Long previous = chunks.put(name, size);
+                    addDiskBytes(size - (previous != null ? previous : 0));
+                }
+
+                Iterator<Map.Entry<String, Long>> iterator = chunks.entrySet().iterator();
+                while (diskBytes > config.getMaxDiskBytes() && iterator.hasNext()) {
+                    Map.Entry<String, Long> eldest = iterator.next();
+                    iterator.remove();
+                    addDiskBytes(-eldest.getValue());
+                    evicted.add(eldest.getKey());
+                }
+            }
+
+            evicted.forEach(this::deleteFile);
+        });
+    }
+
+    private void deleteFile(String name) {
+        try {
+            Files.deleteIfExists(directory.resolve(name));
+        } catch (IOException e) {
+            log.warn("Failed to delete cached chunk {}", name, e);
+        }
+    }
+
+    private static String prefixOf(String key) {
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + "-";
+    }
+
+    private static String nameOf(String key, int chunk) {
+        return prefixOf(key) + chunk + FILE_SUFFIX;
+    }
+
+    private void addDiskBytes(long delta) {
+        diskBytes += delta;
+        diskBytesGauge.inc(delta);
+    }
+
+    /**
+     * Chunks of a previous run aren't indexed, they are removed instead.
+     */
+    private static void clearDirectory(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                    "*{" + FILE_SUFFIX + "," + TEMP_SUFFIX + "}")) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to clear HTTP cache directory {}", directory, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (writer != null) writer.shutdown();
+    }
+
+    /**
+     * A remote file, identified by its URL without the parts that select a range of it.
+     */
+    static final class Resource {
+        final String key;
+        final long length;
+        @Nullable
+        final String contentType;
+        @Nullable
+        final String etag;
+        @Nullable
+        final String lastModified;
+
+        private Resource(String key, long length, @Nullable String contentType, @Nullable String etag,
+                         @Nullable String lastModified) {
+            this.key = key;
+            this.length = length;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return whether a response with the length and validators is of the same version of the file
+         */
+        boolean isVersion(long length, @Nullable String etag, @Nullable String lastModified) {
+            return this.length == length && Objects.equals(this.etag, etag)
+                    && Objects.equals(this.lastModified, lastModified);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.container.MediaContainerDescriptor;
+import com.sedmelluq.discord.lavaplayer.container.MediaContainerDetectionResult;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioTrack;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioReference;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+
+import javax.annotation.Nullable;
+import java.io.DataInput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A {@link LocalAudioSourceManager} that loads the files of a {@link LocalTrackIndex} from the index, without opening
+ * them, and plays them through memory mappings if enabled. Other files are probed as usual.
+ */
+class IndexedLocalAudioSourceManager extends LocalAudioSourceManager {
+
+    private final LocalTrackIndex index;
+
+    IndexedLocalAudioSourceManager(LocalTrackIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public AudioItem loadItem(DefaultAudioPlayerManager manager, AudioReference reference) {
+        File file = new File(reference.identifier);
+        LocalTrackIndex.Entry entry = index.get(file);
+        if (entry != null && entry.info != null && entry.descriptor != null) {
+            LocalTrackIndex.onLoad(true);
+            return createTrack(entry.info, entry.descriptor);
+        }
+
+        LocalTrackIndex.onLoad(false);
+        return probe(manager, reference, file);
+    }
+
+    /**
+     * Loads the file the way {@link LocalAudioSourceManager} does, and records the result in the index. Files whose
+     * format is unknown or unsupported are recorded too, files that failed to be read are not.
+     */
+    @Nullable
+    AudioItem probe(@Nullable DefaultAudioPlayerManager manager, AudioReference reference, File file) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            // Missing or unreadable, reported by the regular load
+            return super.loadItem(manager, reference);
+        }
+
+        AudioItem item;
+        try {
+            item = super.loadItem(manager, reference);
+        } catch (UnsupportedFormatException e) {
+            // Not audio, remembered so that it isn't probed again until it changes
+            index.put(file, attributes, null, null);
+            throw e;
+        }
+        if (item instanceof LocalAudioTrack) {
+            LocalAudioTrack track = (LocalAudioTrack) item;
+            index.put(file, attributes, track.getInfo(), track.getContainerTrackFactory());
+        }
+        return item;
+    }
+
+    @Override
+    protected AudioItem handleLoadResult(MediaContainerDetectionResult result) {
+        // Only throws if no container supports the file, read errors are thrown while the container is detected
+        try {
+            return super.handleLoadResult(result);
+        } catch (FriendlyException e) {
+            throw new UnsupportedFormatException(e);
+        }
+    }
+
+    @Override
+    protected AudioTrack createTrack(AudioTrackInfo trackInfo, MediaContainerDescriptor containerTrackFactory) {
+        if (!index.isMemoryMapped()) return super.createTrack(trackInfo, containerTrackFactory);
+
+        return new MappedLocalAudioTrack(trackInfo, containerTrackFactory, this);
+    }
+
+    @Override
+    public AudioTrack decodeTrack(AudioTrackInfo trackInfo, DataInput input) throws IOException {
+        MediaContainerDescriptor containerTrackFactory = decodeTrackFactory(input);
+        return containerTrackFactory != null ? createTrack(trackInfo, containerTrackFactory) : null;
+    }
+
+    /**
+     * Thrown if the format of a file is unknown or unsupported, with the message of the load failure.
+     */
+    static final class UnsupportedFormatException extends FriendlyException {
+
+        private UnsupportedFormatException(FriendlyException e) {
+            super(e.getMessage(), e.severity, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package lavalink.server.player;
+
+import lavalink.server.config.CacheConfig;
+import lavalink.server.util.BoundedCache;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+
+/**
+ * Holds UTF-8 encoded /loadtracks responses by identifier, so that repeated loads of popular identifiers and searches
+ * don't have to be resolved against the remote source again.
+ */
+@Component
+public class LoadResultCache {
+
+    private final CacheConfig.LoadResults config;
+    // Null if disabled, so that the size of a disabled cache isn't validated
+    @Nullable
+    private final BoundedCache<String, byte[]> cache;
+
+    public LoadResultCache(CacheConfig cacheConfig) {
+        this.config = cacheConfig.getLoadResults();
+        this.cache = config.isEnabled() ? new BoundedCache<>("loadtracks", config.getMaxSize()) : null;
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    @Nullable
+    public byte[] get(String identifier) {
+        if (cache == null) return null;
+
+        return cache.get(identifier);
+    }
+
+    public void put(String identifier, ResultStatus status, byte[] encodedResult) {
+        if (cache == null) return;
+
+        cache.put(identifier, encodedResult, getTtl(status));
+    }
+
+    private long getTtl(ResultStatus status) {
+        switch (status) {
+            case TRACK_LOADED:
+                return config.getTrackTtlMs();
+            case PLAYLIST_LOADED:
+                return config.getPlaylistTtlMs();
+            case SEARCH_RESULT:
+                return config.getSearchTtlMs();
+            case NO_MATCHES:
+                return config.getNoMatchesTtlMs();
+            case LOAD_FAILED:
+                return config.getLoadFailedTtlMs();
+            default:
+                return 0;
+        }
+    }
+}
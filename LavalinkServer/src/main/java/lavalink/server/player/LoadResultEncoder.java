@@ -0,0 +1,106 @@
+package lavalink.server.player;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import lavalink.server.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes load results as JSON straight to an output stream, one track at a time, instead of building the whole
+ * document in memory first. The output is equivalent to what was previously built with org.json, including the
+ * omission of null values.
+ */
+class LoadResultEncoder {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadResultEncoder.class);
+    static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final AudioPlayerManager audioPlayerManager;
+
+    LoadResultEncoder(AudioPlayerManager audioPlayerManager) {
+        this.audioPlayerManager = audioPlayerManager;
+    }
+
+    byte[] encode(LoadResult result) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(result, out);
+        return out.toByteArray();
+    }
+
+    void write(LoadResult result, OutputStream out) throws IOException {
+        try (JsonGenerator gen = JSON_FACTORY.createGenerator(out)) {
+            writeJson(result, gen);
+        }
+    }
+
+    void writeJson(LoadResult result, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("loadType", result.loadResultType.name());
+
+        gen.writeObjectFieldStart("playlistInfo");
+        writeStringIfPresent(gen, "name", result.playlistName);
+        if (result.selectedTrack != null) gen.writeNumberField("selectedTrack", result.selectedTrack);
+        gen.writeEndObject();
+
+        gen.writeArrayFieldStart("tracks");
+        for (AudioTrack track : result.tracks) {
+            String encoded;
+            try {
+                encoded = Util.toMessage(audioPlayerManager, track);
+            } catch (IOException e) {
+                log.warn("Failed to encode a track {}, skipping", track.getIdentifier(), e);
+                continue;
+            }
+
+            gen.writeStartObject();
+            gen.writeStringField("track", encoded);
+            gen.writeFieldName("info");
+            writeTrackInfo(gen, track);
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+
+        if (result.loadResultType == ResultStatus.LOAD_FAILED && result.exception != null) {
+            gen.writeObjectFieldStart("exception");
+            writeStringIfPresent(gen, "message", result.exception.getLocalizedMessage());
+            gen.writeStringField("severity", result.exception.severity.toString());
+            gen.writeEndObject();
+        }
+
+        gen.writeEndObject();
+    }
+
+    static void writeTrackInfo(JsonGenerator gen, AudioTrack audioTrack) throws IOException {
+        writeTrackInfo(gen, TrackInfoDecoder.DecodedTrackInfo.of(audioTrack));
+    }
+
+    static void writeTrackInfo(JsonGenerator gen, TrackInfoDecoder.DecodedTrackInfo decoded) throws IOException {
+        AudioTrackInfo trackInfo = decoded.info;
+
+        gen.writeStartObject();
+        writeStringIfPresent(gen, "title", trackInfo.title);
+        writeStringIfPresent(gen, "author", trackInfo.author);
+        gen.writeNumberField("length", trackInfo.length);
+        writeStringIfPresent(gen, "identifier", trackInfo.identifier);
+        writeStringIfPresent(gen, "uri", trackInfo.uri);
+        gen.writeBooleanField("isStream", trackInfo.isStream);
+        gen.writeBooleanField("isSeekable", decoded.isSeekable);
+        gen.writeNumberField("position", decoded.position);
+        gen.writeEndObject();
+    }
+
+    private static void writeStringIfPresent(JsonGenerator gen, String name, @Nullable String value)
+            throws IOException {
+        if (value != null) gen.writeStringField(name, value);
+    }
+}
@@ -0,0 +1,213 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.container.MediaContainerDescriptor;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioReference;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import lavalink.server.config.AudioSourcesConfig;
+import lavalink.server.config.LocalIndexConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The track info and container format of the audio files in the directories of {@link LocalIndexConfig}, so that
+ * loading their tracks doesn't have to open them. The directories are scanned in the background on startup and then
+ * rescanned periodically, which only probes the files that were added or changed since. A file is looked up by its
+ * path, size and modification time.
+ * <p>
+ * Files that are loaded before the scan reaches them are probed on load and indexed right away.
+ */
+@Component
+public class LocalTrackIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalTrackIndex.class);
+
+    private static final Gauge indexedFiles = Gauge.build()
+            .name("lavalink_local_index_files")
+            .help("Local audio files in the index")
+            .register();
+    private static final Counter loads = Counter.build()
+            .name("lavalink_local_index_loads_total")
+            .help("Loads of local tracks, by whether they were found in the index or their file had to be probed")
+            .labelNames("result") // indexed, probed
+            .register();
+
+    private final boolean memoryMapped;
+    private final List<Path> directories;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // Probes the files for the scanner
+    private final IndexedLocalAudioSourceManager prober = new IndexedLocalAudioSourceManager(this);
+    @Nullable
+    private final ScheduledExecutorService scanner;
+
+    public LocalTrackIndex(LocalIndexConfig config, AudioSourcesConfig sources) {
+        this.memoryMapped = config.isMemoryMapped();
+        this.directories = config.getDirectories().stream()
+                .map(directory -> Paths.get(directory).toAbsolutePath().normalize())
+                .collect(Collectors.toList());
+
+        if (!sources.isLocal() || directories.isEmpty()) {
+            scanner = null;
+            return;
+        }
+
+        scanner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "local-index-scanner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (config.getRescanIntervalMs() > 0) {
+            scanner.scheduleWithFixedDelay(this::scan, 0, config.getRescanIntervalMs(), TimeUnit.MILLISECONDS);
+        } else {
+            scanner.execute(this::scan);
+        }
+    }
+
+    public boolean isEnabled() {
+        return scanner != null;
+    }
+
+    /**
+     * @return a source manager for local tracks that loads indexed files from this index
+     */
+    public AudioSourceManager createSourceManager() {
+        return new IndexedLocalAudioSourceManager(this);
+    }
+
+    boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    static void onLoad(boolean indexed) {
+        loads.labels(indexed ? "indexed" : "probed").inc();
+    }
+
+    /**
+     * @return the entry of the file, null if it isn't indexed or has changed since
+     */
+    @Nullable
+    Entry get(File file) {
+        Path path = pathOf(file);
+        Entry entry = entries.get(path.toString());
+        if (entry == null) return null;
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return entry.matches(attributes) ? entry : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    void put(File file, BasicFileAttributes attributes, @Nullable AudioTrackInfo info,
+             @Nullable MediaContainerDescriptor descriptor) {
+        Path path = pathOf(file);
+        if (directories.stream().noneMatch(path::startsWith)) return;
+
+        entries.put(path.toString(), new Entry(attributes, info, descriptor));
+        indexedFiles.set(entries.size());
+    }
+
+    void scan() {
+        long start = System.nanoTime();
+        Set<String> seen = new HashSet<>();
+        int[] probed = {0};
+
+        for (Path directory : directories) {
+            try {
+                Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                        if (!attributes.isRegularFile()) return FileVisitResult.CONTINUE;
+
+                        seen.add(file.toString());
+                        Entry entry = entries.get(file.toString());
+                        if (entry == null || !entry.matches(attributes)) {
+                            probe(file);
+                            probed[0]++;
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        log.debug("Failed to visit {} while indexing", file, e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                log.warn("Failed to index local files in {}", directory, e);
+            }
+        }
+
+        entries.keySet().retainAll(seen);
+        indexedFiles.set(entries.size());
+        log.info("Indexed {} local files, probed {} of them, in {} ms", entries.size(), probed[0],
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void probe(Path file) {
+        try {
+            prober.probe(null, new AudioReference(file.toString(), null), file.toFile());
+        } catch (FriendlyException e) {
+            // Files that aren't audio are indexed by the prober, others are probed again by the next scan
+            log.debug("Failed to probe {} while indexing", file, e);
+        } catch (RuntimeException e) {
+            log.warn("Failed to probe {} while indexing", file, e);
+        }
+    }
+
+    private static Path pathOf(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scanner != null) scanner.shutdownNow();
+    }
+
+    static final class Entry {
+        private final long size;
+        private final long lastModified;
+        // Both null if the file isn't a supported audio file
+        @Nullable
+        final AudioTrackInfo info;
+        @Nullable
+        final MediaContainerDescriptor descriptor;
+
+        private Entry(BasicFileAttributes attributes, @Nullable AudioTrackInfo info,
+                      @Nullable MediaContainerDescriptor descriptor) {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.info = info;
+            this.descriptor = descriptor;
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.container.MediaContainerDescriptor;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioTrack;
+import com.sedmelluq.discord.lavaplayer.tools.io.SeekableInputStream;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.InternalAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+
+import java.io.File;
+
+/**
+ * A local track that reads its file through a memory mapping, see {@link MappedSeekableInputStream}.
+ */
+class MappedLocalAudioTrack extends LocalAudioTrack {
+
+    private final File file;
+    private final LocalAudioSourceManager sourceManager;
+
+    MappedLocalAudioTrack(AudioTrackInfo trackInfo, MediaContainerDescriptor containerTrackFactory,
+                          LocalAudioSourceManager sourceManager) {
+        super(trackInfo, containerTrackFactory, sourceManager);
+        this.file = new File(trackInfo.identifier);
+        this.sourceManager = sourceManager;
+    }
+
+    @Override
+    public void process(LocalAudioTrackExecutor localExecutor) throws Exception {
+        try (SeekableInputStream inputStream = MappedSeekableInputStream.open(file)) {
+            processDelegate((InternalAudioTrack) getContainerTrackFactory().createTrack(trackInfo, inputStream),
+                    localExecutor);
+        }
+    }
+
+    @Override
+    public AudioTrack makeClone() {
+        MappedLocalAudioTrack clone = new MappedLocalAudioTrack(trackInfo, getContainerTrackFactory(), sourceManager);
+        clone.setUserData(getUserData());
+        return clone;
+    }
+}
@@ -0,0 +1,155 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.source.local.LocalSeekableInputStream;
+import com.sedmelluq.discord.lavaplayer.tools.io.SeekableInputStream;
+import com.sedmelluq.discord.lavaplayer.track.info.AudioTrackInfoProvider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a file through a read only memory mapping. Reads are copies from the page cache rather than system calls, and
+ * seeking only moves the position.
+ * <p>
+ * The mapping is released when the stream is closed. Left to the garbage collector, which may not run for a long time
+ * while players don't allocate, mappings would pile up against the limit of the process, and deleted files would stay
+ * on disk. Like any input stream it is only used by one thread at a time, so nothing reads the mapping once it's
+ * released.
+ */
+class MappedSeekableInputStream extends SeekableInputStream {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedSeekableInputStream.class);
+
+    @Nullable
+    private static final Unmapper unmapper = createUnmapper();
+
+    private final ByteBuffer buffer;
+    private boolean closed = false;
+
+    private MappedSeekableInputStream(ByteBuffer buffer) {
+        super(buffer.capacity(), 0);
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return a stream of the mapped file, or a regular stream if it's too large to be mapped as a whole
+     */
+    static SeekableInputStream open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            if (channel.size() > Integer.MAX_VALUE) return new LocalSeekableInputStream(file);
+
+            // The mapping stays valid after the channel is closed
+            return new MappedSeekableInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    @Override
+    public long getPosition() {
+        return buffer.position();
+    }
+
+    @Override
+    protected void seekHard(long position) {
+        buffer.position((int) Math.min(position, buffer.limit()));
+    }
+
+    @Override
+    public boolean canSeekHard() {
+        return true;
+    }
+
+    @Override
+    public List<AudioTrackInfoProvider> getTrackInfoProviders() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) return 0;
+        if (!buffer.hasRemaining()) return -1;
+
+        int read = Math.min(len, buffer.remaining());
+        buffer.get(b, off, read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+
+        closed = true;
+        if (unmapper == null) return;
+        try {
+            unmapper.unmap(buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Failed to release a mapped file, it is released once it's garbage collected", e);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Stream closed");
+    }
+
+    /**
+     * @return a way to release mappings on Java 8 and later, null if this JVM provides none
+     */
+    @Nullable
+    private static Unmapper createUnmapper() {
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+            // Java 8
+        }
+
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                Object bufferCleaner = cleaner.invoke(buffer);
+                if (bufferCleaner != null) clean.invoke(bufferCleaner);
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Mapped files can't be released before they are garbage collected", e);
+            return null;
+        }
+    }
+
+    private interface Unmapper {
+        void unmap(ByteBuffer buffer) throws ReflectiveOperationException;
+    }
+}
@@ -0,0 +1,358 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import lavalink.server.config.CacheConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the encoded opus frames of tracks that were played to the end with the same volume and equalizer, see
+ * {@link CacheConfig.OpusFrames}. A player whose track is cached sends the frames from the cache, without loading or
+ * encoding anything.
+ * <p>
+ * Each track is recorded by at most one player at a time, and recordings stop once they exceed the memory limit of a
+ * single entry or all recordings together exceed their own limit.
+ * <p>
+ * The least recently used entries are evicted from memory once it exceeds its limit. If a directory is configured they
+ * are written there, and read back into memory on their next hit, until the directory exceeds its own limit. Files
+ * are only written and read by a background thread, so that players never wait for them: a hit on disk is played like
+ * a miss, and only the plays after it are served from memory.
+ */
+@Component
+public class OpusFrameCache {
+
+    private static final Logger log = LoggerFactory.getLogger(OpusFrameCache.class);
+
+    private static final Counter requests = Counter.build()
+            .name("lavalink_opus_cache_requests_total")
+            .help("Plays of cacheable tracks, by where their frames were found")
+            .labelNames("result") // memory, disk (loaded for the next play), miss
+            .register();
+    private static final Gauge cachedBytes = Gauge.build()
+            .name("lavalink_opus_cache_bytes")
+            .help("Size of the cached opus frames")
+            .labelNames("tier") // memory, disk, recording
+            .register();
+    private static final Counter servedSeconds = Counter.build()
+            .name("lavalink_opus_cache_served_seconds_total")
+            .help("Audio sent from cached frames, that didn't have to be loaded and encoded")
+            .register();
+
+    private static final String FILE_SUFFIX = ".frames";
+
+    private final CacheConfig.OpusFrames config;
+    @Nullable
+    private final Path directory;
+    @Nullable
+    private final ExecutorService diskWriter;
+
+    // All guarded by this, in least recently used order
+    private final LinkedHashMap<String, CachedFrames> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes = 0;
+    private long diskBytes = 0;
+    // Guarded by this
+    private final Map<String, Recorder> recordings = new HashMap<>();
+    // Keys of the entries being read back from disk, guarded by this
+    private final Set<String> loading = new HashSet<>();
+    // Reserved by the recordings as they grow
+    private final AtomicLong recordingBytes = new AtomicLong();
+
+    public OpusFrameCache(CacheConfig cacheConfig) {
+        this.config = cacheConfig.getOpusFrames();
+        this.directory = config.isEnabled() && config.getDirectory() != null ? Paths.get(config.getDirectory()) : null;
+        this.diskWriter = directory != null ? Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "opus-cache-writer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+
+        if (directory != null) clearDirectory(directory);
+    }
+
+    static void onServed(int frames) {
+        servedSeconds.inc(frames * CachedFrames.FRAME_DURATION_MS / 1000.0);
+    }
+
+    /**
+     * @param gains the equalizer gains, null if no equalizer is applied
+     * @return the key of the frames the track is encoded to with these settings, null if the track isn't cacheable
+     */
+    @Nullable
+    String keyOf(AudioTrack track, int volume, @Nullable float[] gains) {
+        if (!config.isEnabled() || track.getInfo().isStream || track.getSourceManager() == null) return null;
+        if (track.getDuration() > config.getMaxTrackDurationMs()) return null;
+
+        StringBuilder key = new StringBuilder(track.getSourceManager().getSourceName())
+                .append(':').append(track.getIdentifier())
+                .append("|volume=").append(volume);
+        if (gains != null) {
+            key.append("|equalizer");
+            for (float gain : gains) key.append(',').append(gain);
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the cached frames, null if they are only on disk, in which case they are loaded in the background
+     */
+    @Nullable
+    CachedFrames get(String key) {
+        synchronized (this) {
+            CachedFrames frames = memory.get(key);
+            if (frames != null) {
+                requests.labels("memory").inc();
+                return frames;
+            }
+
+            if (disk.get(key) == null) {
+                requests.labels("miss").inc();
+                return null;
+            }
+
+            requests.labels("disk").inc();
+            if (!loading.add(key)) return null;
+        }
+
+        //noinspection ConstantConditions
+        diskWriter.execute(() -> load(key));
+        return null;
+    }
+
+    /**
+     * @return a recorder for the frames of the track, which caches them once the track has been played to the end.
+     * Null if the track is already cached or recorded by another player.
+     */
+    @Nullable
+    synchronized Recorder record(String key, AudioTrack track) {
+        if (recordings.containsKey(key) || memory.containsKey(key) || disk.containsKey(key)) return null;
+
+        Recorder recorder = new Recorder(key, track);
+        recordings.put(key, recorder);
+        return recorder;
+    }
+
+    private void load(String key) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(fileOf(key))))) {
+            put(key, CachedFrames.readFrom(in));
+        } catch (IOException | RuntimeException e) {
+            // Runtime exceptions are thrown by the lengths of corrupt files
+            log.warn("Failed to read cached frames of {}, removing them", key, e);
+            removeFromDisk(key);
+        } finally {
+            synchronized (this) {
+                loading.remove(key);
+            }
+        }
+    }
+
+    private boolean reserveRecordingBytes(long bytes) {
+        if (recordingBytes.addAndGet(bytes) > config.getMaxRecordingBytes()) {
+            recordingBytes.addAndGet(-bytes);
+            return false;
+        }
+        cachedBytes.labels("recording").inc(bytes);
+        return true;
+    }
+
+    private void endRecording(Recorder recorder, long reservedBytes) {
+        synchronized (this) {
+            recordings.remove(recorder.key, recorder);
+        }
+        recordingBytes.addAndGet(-reservedBytes);
+        cachedBytes.labels("recording").dec(reservedBytes);
+    }
+
+    private void put(String key, CachedFrames frames) {
+        List<Map.Entry<String, CachedFrames>> evicted = new ArrayList<>();
+        synchronized (this) {
+            CachedFrames previous = memory.put(key, frames);
+            addMemoryBytes(frames.getSize() - (previous != null ? previous.getSize() : 0));
+
+            Iterator<Map.Entry<String, CachedFrames>> iterator = memory.entrySet().iterator();
+            while (memoryBytes > config.getMaxMemoryBytes() && iterator.hasNext()) {
+                Map.Entry<String, CachedFrames> eldest = iterator.next();
+                iterator.remove();
+                addMemoryBytes(-eldest.getValue().getSize());
+                // Entries read back from disk are still there
+                if (!disk.containsKey(eldest.getKey())) evicted.add(eldest);
+            }
+        }
+
+        if (diskWriter == null) return;
+        for (Map.Entry<String, CachedFrames> entry : evicted) {
+            diskWriter.execute(() -> spill(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    private void spill(String key, CachedFrames frames) {
+        Path file = fileOf(key);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            frames.writeTo(out);
+        } catch (IOException e) {
+            log.warn("Failed to spill cached frames of {} to {}", key, file, e);
+            return;
+        }
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Long previous = disk.put(key, frames.getSize());
+            addDiskBytes(frames.getSize() - (previous != null ? previous : 0));
+
+            Iterator<Map.Entry<String, Long>> iterator = disk.entrySet().iterator();
+            while (diskBytes > config.getMaxDiskBytes() && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                iterator.remove();
+                addDiskBytes(-eldest.getValue());
+                evicted.add(eldest.getKey());
+            }
+        }
+
+        for (String evictedKey : evicted) {
+            deleteFile(evictedKey);
+        }
+    }
+
+    private void removeFromDisk(String key) {
+        synchronized (this) {
+            Long size = disk.remove(key);
+            if (size == null) return;
+            addDiskBytes(-size);
+        }
+        deleteFile(key);
+    }
+
+    private void deleteFile(String key) {
+        try {
+            Files.deleteIfExists(fileOf(key));
+        } catch (IOException e) {
+            log.warn("Failed to delete cached frames of {}", key, e);
+        }
+    }
+
+    private Path fileOf(String key) {
+        //noinspection ConstantConditions
+        return directory.resolve(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + FILE_SUFFIX);
+    }
+
+    private void addMemoryBytes(long delta) {
+        memoryBytes += delta;
+        cachedBytes.labels("memory").inc(delta);
+    }
+
+    private void addDiskBytes(long delta) {
+        diskBytes += delta;
+        cachedBytes.labels("disk").inc(delta);
+    }
+
+    /**
+     * Files of a previous run aren't indexed, they are removed instead.
+     */
+    private static void clearDirectory(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to clear opus frame cache directory {}", directory, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (diskWriter != null) diskWriter.shutdown();
+    }
+
+    /**
+     * Collects the frames of a track while it is played from the start. Appended to by the audio send thread, every
+     * recorder has to be either completed or cancelled.
+     */
+    class Recorder {
+        private final String key;
+        private final AudioTrack track;
+        // Null once the recording has ended, both guarded by this
+        @Nullable
+        private CachedFrames.Builder frames = new CachedFrames.Builder();
+        private long reservedBytes = 0;
+
+        private Recorder(String key, AudioTrack track) {
+            this.key = key;
+            this.track = track;
+        }
+
+        AudioTrack getTrack() {
+            return track;
+        }
+
+        synchronized void append(byte[] frame, int length) {
+            if (frames == null) return;
+
+            // The frame and its offset
+            long size = length + 4;
+            if (frames.getSize() + size > config.getMaxMemoryBytes() || !reserveRecordingBytes(size)) {
+                // A part of a track can't be played from the cache, stop recording it altogether
+                end();
+                return;
+            }
+            reservedBytes += size;
+            frames.append(frame, length);
+        }
+
+        /**
+         * Caches the frames, after the track has been played to the end.
+         */
+        void complete() {
+            CachedFrames completed;
+            synchronized (this) {
+                if (frames == null) return;
+                completed = frames.build();
+                end();
+            }
+            put(key, completed);
+        }
+
+        /**
+         * Drops the frames, after the track has been stopped or changed.
+         */
+        synchronized void cancel() {
+            if (frames != null) end();
+        }
+
+        private void end() {
+            frames = null;
+            endRecording(this, reservedBytes);
+            reservedBytes = 0;
+        }
+    }
+}
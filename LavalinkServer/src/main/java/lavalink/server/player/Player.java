@@ -26,52 +26,148 @@ import com.sedmelluq.discord.lavaplayer.filter.equalizer.Equalizer;
 import com.sedmelluq.discord.lavaplayer.filter.equalizer.EqualizerFactory;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEvent;
 import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.player.event.TrackEndEvent;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
-import com.sedmelluq.discord.lavaplayer.track.playback.AudioFrame;
 import lavalink.server.io.SocketContext;
 import lavalink.server.io.SocketServer;
+import lavalink.server.util.HashedWheelScheduler;
 import net.dv8tion.jda.api.audio.AudioSendHandler;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import space.npstr.magma.api.MagmaMember;
+import space.npstr.magma.api.Member;
 
 import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class Player extends AudioEventAdapter implements AudioSendHandler {
 
     private static final Logger log = LoggerFactory.getLogger(Player.class);
 
+    public static final long UPDATE_INTERVAL_SECONDS = 5;
+
     private SocketContext socketContext;
     private final String guildId;
+    private final Member member;
     private final AudioPlayer player;
+    private final EventEmitter eventEmitter;
+    // Set while playing frames from elsewhere, like a live stream shared with other players, instead of playing the
+    // track with our own player
+    @Nullable
+    private volatile FrameSource frameSource = null;
+    // The frame source whose end has been scheduled, only accessed by the audio send thread
+    @Nullable
+    private FrameSource endedSource = null;
+    // The track of our own player being stopped for a frame source, which ends it as replaced instead
+    @Nullable
+    private volatile AudioTrack replacedTrack = null;
+    // Set while playing a track from the start, so that its frames can be cached once it has been played to the end
+    @Nullable
+    private volatile OpusFrameCache.Recorder recorder = null;
     private AudioLossCounter audioLossCounter = new AudioLossCounter();
-    private AudioFrame lastFrame = null;
-    private ScheduledFuture myFuture = null;
+    private final FrameTelemetry frameTelemetry = new FrameTelemetry();
+    private final PlayerFrameBuffer frameBuffer = new PlayerFrameBuffer();
+    private HashedWheelScheduler.Timeout updateTimeout = null;
     private EqualizerFactory equalizerFactory = new EqualizerFactory();
     private boolean isEqualizerApplied = false;
+    private volatile long lastUpdateTime = 0;
+    // Whether the last call to canProvide() returned a frame, only written by the audio send thread and track starts
+    private volatile boolean frameProvided = false;
+    // Written by the audio send thread and track starts
+    private volatile boolean bufferUnderrun = false;
+    // The track of the last provided frame, only accessed by the audio send thread
+    @Nullable
+    private AudioTrack frameTrack = null;
+    // Whether this player is counted as playing by the stats sampler, guarded by this
+    private boolean countedPlaying = false;
+    private boolean destroyed = false;
 
     public Player(SocketContext socketContext, String guildId, AudioPlayerManager audioPlayerManager) {
         this.socketContext = socketContext;
         this.guildId = guildId;
+        this.member = MagmaMember.builder()
+                .userId(socketContext.getUserId())
+                .guildId(guildId)
+                .build();
         this.player = audioPlayerManager.createPlayer();
+        // The event emitter and the loss counter get their events through onEvent()
         this.player.addListener(this);
-        this.player.addListener(new EventEmitter(audioPlayerManager, this));
-        this.player.addListener(audioLossCounter);
+        this.eventEmitter = new EventEmitter(audioPlayerManager, this);
+        socketContext.getStatsSampler().onPlayerCreated();
     }
 
     public void play(AudioTrack track) {
+        OpusFrameCache opusFrameCache = socketContext.getOpusFrameCache();
+        String cacheKey = opusFrameCache.keyOf(track, player.getVolume(), getEqualizerGains());
+        CachedFrames cached = cacheKey != null ? opusFrameCache.get(cacheKey) : null;
+        if (cached != null) {
+            playFrameSource(cached.play(track));
+            return;
+        }
+
+        SharedStreamHub sharedStreams = socketContext.getSharedStreams();
+        // Shared frames are passed through as is, they can't be filtered for one player
+        if (player.getVolume() == 100 && !isEqualizerApplied && sharedStreams.isShareable(track)) {
+            SharedStream.Subscription subscription = sharedStreams.subscribe(track, this);
+            if (subscription != null) {
+                playFrameSource(subscription);
+                return;
+            }
+        }
+
+        endFrameSource(null, AudioTrackEndReason.REPLACED);
+        cancelRecording();
+        // Tracks started at an offset would only leave a part of their frames
+        recorder = cacheKey != null && track.getPosition() == 0 ? opusFrameCache.record(cacheKey, track) : null;
         player.playTrack(track);
     }
 
+    private void cancelRecording() {
+        OpusFrameCache.Recorder recorder = this.recorder;
+        this.recorder = null;
+        if (recorder != null) recorder.cancel();
+    }
+
+    private void playFrameSource(FrameSource source) {
+        AudioTrack previous = player.getPlayingTrack();
+        if (previous != null) {
+            replacedTrack = previous;
+            player.stopTrack();
+            replacedTrack = null;
+            endTrack(previous, AudioTrackEndReason.REPLACED);
+        }
+        cancelRecording();
+        endFrameSource(null, AudioTrackEndReason.REPLACED);
+        frameSource = source;
+        onTrackStart(player, source.getTrack());
+        audioLossCounter.onTrackStart(player, source.getTrack());
+    }
+
     public void stop() {
+        endFrameSource(null, AudioTrackEndReason.STOPPED);
         player.stopTrack();
     }
 
+    /**
+     * Stops this player for good, after it has been removed from its socket context.
+     */
+    public void destroy() {
+        stop();
+        synchronized (this) {
+            if (destroyed) return;
+            destroyed = true;
+            if (countedPlaying) socketContext.getStatsSampler().onPlayingChanged(false);
+            countedPlaying = false;
+        }
+        frameTelemetry.close();
+        socketContext.getStatsSampler().onPlayerDestroyed();
+    }
+
     public void setPause(boolean b) {
         player.setPaused(b);
     }
@@ -80,20 +176,43 @@ public class Player extends AudioEventAdapter implements AudioSendHandler {
         return guildId;
     }
 
+    /**
+     * @return the member this player sends audio as
+     */
+    public Member getMember() {
+        return member;
+    }
+
     public void seekTo(long position) {
-        AudioTrack track = player.getPlayingTrack();
+        AudioTrack track = getPlayingTrack();
 
         if (track == null) throw new RuntimeException("Can't seek when not playing anything");
 
+        cancelRecording();
+        FrameSource source = frameSource;
+        if (source != null) {
+            source.seekTo(position);
+            return;
+        }
+
         track.setPosition(position);
     }
 
     public void setVolume(int volume) {
+        if (volume == player.getVolume()) return;
+
+        // Frames from elsewhere and recorded frames have the previous volume applied
+        leaveFrameSource();
+        cancelRecording();
         player.setVolume(volume);
     }
 
     public void setBandGain(int band, float gain) {
         log.debug("Setting band {}'s gain to {}", band, gain);
+        if (gain != equalizerFactory.getGain(band)) {
+            leaveFrameSource();
+            cancelRecording();
+        }
         equalizerFactory.setGain(band, gain);
 
         if (gain == 0.0f) {
@@ -119,23 +238,56 @@ public class Player extends AudioEventAdapter implements AudioSendHandler {
         }
     }
 
-    public JSONObject getState() {
-        JSONObject json = new JSONObject();
+    /**
+     * Records that the state of this player was just sent to the client.
+     */
+    public void markUpdateSent(long time) {
+        lastUpdateTime = time;
+    }
 
-        if (player.getPlayingTrack() != null)
-            json.put("position", player.getPlayingTrack().getPosition());
-        json.put("time", System.currentTimeMillis());
+    /**
+     * @return whether the periodic update of this player should be sent. With adaptive updates that is only the case
+     * if nothing has been sent for the keepalive interval of the session.
+     */
+    public boolean isUpdateDue(long now) {
+        if (!socketContext.getAdaptivePlayerUpdates()) return true;
 
-        return json;
+        // Leave room for the update tick to fire a little early
+        long keepaliveMs = TimeUnit.SECONDS.toMillis(socketContext.getPlayerUpdateKeepalive());
+        return now - lastUpdateTime >= keepaliveMs - 1000;
     }
 
     SocketContext getSocket() {
         return socketContext;
     }
 
+    @Nullable
+    private float[] getEqualizerGains() {
+        if (!isEqualizerApplied) return null;
+
+        float[] gains = new float[Equalizer.BAND_COUNT];
+        for (int i = 0; i < gains.length; i++) {
+            gains[i] = equalizerFactory.getGain(i);
+        }
+        return gains;
+    }
+
     @Nullable
     public AudioTrack getPlayingTrack() {
-        return player.getPlayingTrack();
+        FrameSource source = frameSource;
+        return source != null ? source.getTrack() : player.getPlayingTrack();
+    }
+
+    /**
+     * @return the position of the playing track, null if there is none
+     */
+    @Nullable
+    public Long getTrackPosition() {
+        FrameSource source = frameSource;
+        if (source != null) return source.getPosition();
+
+        AudioTrack track = player.getPlayingTrack();
+        return track != null ? track.getPosition() : null;
     }
 
     public boolean isPaused() {
@@ -144,20 +296,52 @@ public class Player extends AudioEventAdapter implements AudioSendHandler {
 
     @Override
     public boolean canProvide() {
-        lastFrame = player.provide();
+        FrameSource source = frameSource;
+        boolean provided;
+        if (source == null) {
+            provided = frameBuffer.provide(player);
+            OpusFrameCache.Recorder recorder = this.recorder;
+            if (provided && recorder != null && recorder.getTrack() == player.getPlayingTrack()) {
+                recorder.append(frameBuffer.getData(), frameBuffer.getLength());
+            }
+        } else {
+            provided = !player.isPaused() && frameBuffer.provide(source);
+            if (!provided && source.isFinished() && endedSource != source) {
+                endedSource = source;
+                // Keep the sending off the audio send thread
+                socketContext.getScheduler().schedule(
+                        () -> endFrameSource(source, AudioTrackEndReason.FINISHED), 0, TimeUnit.MILLISECONDS);
+            }
+        }
+        AudioTrack track = getPlayingTrack();
+        frameTelemetry.record(provided, isPlaying(), track != null && track == frameTrack);
 
-        if(lastFrame == null) {
+        if (!provided) {
             audioLossCounter.onLoss();
+
+            // Clients extrapolate the position, tell them it stopped moving. A gap between tracks isn't an underrun.
+            if (frameProvided && track != null && track == frameTrack && !player.isPaused()) {
+                bufferUnderrun = true;
+                onDiscontinuity();
+            }
+            frameProvided = false;
             return false;
         } else {
             audioLossCounter.onSuccess();
+
+            if (bufferUnderrun) {
+                bufferUnderrun = false;
+                onDiscontinuity();
+            }
+            frameProvided = true;
+            frameTrack = track;
             return true;
         }
     }
 
     @Override
     public ByteBuffer provide20MsAudio() {
-        return ByteBuffer.wrap(lastFrame.getData());
+        return frameBuffer.take();
     }
 
     @Override
@@ -169,23 +353,148 @@ public class Player extends AudioEventAdapter implements AudioSendHandler {
         return audioLossCounter;
     }
 
+    public FrameTelemetry getFrameTelemetry() {
+        return frameTelemetry;
+    }
+
     public boolean isPlaying() {
-        return player.getPlayingTrack() != null && !player.isPaused();
+        return getPlayingTrack() != null && !player.isPaused();
+    }
+
+    /**
+     * Ends the frame source being played, if any, as if it was played by our own player.
+     *
+     * @param expected the source to end, or null for whichever is current
+     */
+    private void endFrameSource(@Nullable FrameSource expected, AudioTrackEndReason reason) {
+        FrameSource source = takeFrameSource(expected);
+        if (source == null) return;
+
+        source.close();
+        endTrack(source.getTrack(), reason);
+    }
+
+    /**
+     * Ends a track that isn't ended by our own player.
+     */
+    private void endTrack(AudioTrack track, AudioTrackEndReason reason) {
+        onTrackEnd(player, track, reason);
+        eventEmitter.onTrackEnd(player, track, reason);
+        audioLossCounter.onTrackEnd(player, track, reason);
+    }
+
+    /**
+     * Switches from the frame source being played, if any, to playing its track with our own player from the same
+     * position. The client isn't told, as it's still the same track.
+     */
+    private void leaveFrameSource() {
+        FrameSource source = takeFrameSource(null);
+        if (source == null) return;
+
+        long position = source.getPosition();
+        source.close();
+        AudioTrack track = source.getTrack().makeClone();
+        if (track.isSeekable()) track.setPosition(position);
+        player.playTrack(track);
+    }
+
+    @Nullable
+    private synchronized FrameSource takeFrameSource(@Nullable FrameSource expected) {
+        FrameSource source = frameSource;
+        if (expected != null && source != expected) return null;
+
+        frameSource = null;
+        return source;
+    }
+
+    void onFrameSourceEnd(FrameSource source, AudioTrackEndReason reason) {
+        endFrameSource(source, reason);
+    }
+
+    void onFrameSourceException(FrameSource source, FriendlyException exception) {
+        if (frameSource == source) eventEmitter.onTrackException(player, source.getTrack(), exception);
+    }
+
+    void onFrameSourceStuck(FrameSource source, long thresholdMs) {
+        if (frameSource == source) eventEmitter.onTrackStuck(player, source.getTrack(), thresholdMs);
+    }
+
+    /**
+     * Keeps the playing players count of the stats sampler up to date. Called after every event that may change
+     * {@link #isPlaying()}.
+     */
+    private synchronized void updatePlayingCount() {
+        boolean playing = !destroyed && isPlaying();
+        if (playing == countedPlaying) return;
+
+        countedPlaying = playing;
+        socketContext.getStatsSampler().onPlayingChanged(playing);
+    }
+
+    /**
+     * Sends an extra update if the session only receives updates when the position can't be extrapolated anymore.
+     * Stuck tracks are covered by {@link EventEmitter}, which always follows the event with an update.
+     */
+    private void onDiscontinuity() {
+        if (!socketContext.getAdaptivePlayerUpdates() || socketContext.getSessionPaused()) return;
+
+        // Keep the sending off the audio send thread
+        socketContext.getScheduler().schedule(
+                () -> SocketServer.Companion.sendPlayerUpdate(socketContext, this), 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onEvent(AudioEvent event) {
+        // Stopping the track would report it as stopped, playFrameSource() reports it as replaced
+        if (event instanceof TrackEndEvent && ((TrackEndEvent) event).track == replacedTrack) return;
+
+        super.onEvent(event);
+        eventEmitter.onEvent(event);
+        audioLossCounter.onEvent(event);
     }
 
     @Override
     public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
-        myFuture.cancel(false);
+        updateTimeout.cancel();
+        updatePlayingCount();
+
+        OpusFrameCache.Recorder recorder = this.recorder;
+        if (recorder == null || recorder.getTrack() != track) return;
+
+        this.recorder = null;
+        if (endReason == AudioTrackEndReason.FINISHED) {
+            // Copying the frames can take a moment, keep it off the audio send thread
+            socketContext.getScheduler().schedule(recorder::complete, 0, TimeUnit.MILLISECONDS);
+        } else {
+            recorder.cancel();
+        }
+    }
+
+    @Override
+    public void onPlayerPause(AudioPlayer player) {
+        updatePlayingCount();
+    }
+
+    @Override
+    public void onPlayerResume(AudioPlayer player) {
+        updatePlayingCount();
     }
 
     @Override
     public void onTrackStart(AudioPlayer player, AudioTrack track) {
-        if (myFuture == null || myFuture.isCancelled()) {
-            myFuture = socketContext.getPlayerUpdateService().scheduleAtFixedRate(() -> {
-                if (socketContext.getSessionPaused()) return;
+        // Frames of the new track are still being loaded, that's not an underrun
+        frameProvided = false;
+        bufferUnderrun = false;
+        updatePlayingCount();
+
+        if (updateTimeout == null || updateTimeout.isCancelled()) {
+            updateTimeout = socketContext.getScheduler().scheduleAtFixedRate(() -> {
+                // Batched updates are sent by the socket context
+                if (socketContext.getSessionPaused() || socketContext.getBatchPlayerUpdates()) return;
+                if (!isUpdateDue(System.currentTimeMillis())) return;
 
                 SocketServer.Companion.sendPlayerUpdate(socketContext, this);
-            }, 0, 5, TimeUnit.SECONDS);
+            }, 0, UPDATE_INTERVAL_SECONDS, TimeUnit.SECONDS);
         }
     }
 
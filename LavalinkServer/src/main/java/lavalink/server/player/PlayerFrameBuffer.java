@@ -0,0 +1,57 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The frame a player sends next. Every frame is copied into the same buffer, which is handed to the audio send thread
+ * as is, so that sending a frame allocates nothing. Only accessed by the audio send thread.
+ */
+class PlayerFrameBuffer {
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize());
+    private final MutableAudioFrame frame = new MutableAudioFrame();
+
+    PlayerFrameBuffer() {
+        frame.setBuffer(buffer);
+    }
+
+    /**
+     * @return whether the player provided a frame
+     */
+    boolean provide(AudioPlayer player) {
+        return player.provide(frame);
+    }
+
+    /**
+     * @return whether the source provided a frame
+     */
+    boolean provide(FrameSource source) {
+        return source.provide(buffer);
+    }
+
+    /**
+     * @return the array holding the provided frame, from its start up to {@link #getLength()}
+     */
+    byte[] getData() {
+        return buffer.array();
+    }
+
+    /**
+     * @return the length of the provided frame, until it is taken by {@link #take()}
+     */
+    int getLength() {
+        return buffer.position();
+    }
+
+    /**
+     * @return the provided frame, to be sent
+     */
+    ByteBuffer take() {
+        buffer.flip();
+        return buffer;
+    }
+}
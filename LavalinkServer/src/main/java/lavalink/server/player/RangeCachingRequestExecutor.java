@@ -0,0 +1,518 @@
+package lavalink.server.player;
+
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the ranges of remote audio files that {@link HttpRangeCache} has cached, and caches the ones it downloads.
+ * Two ways of requesting a range are understood:
+ * <ul>
+ * <li>A {@code Range: bytes=start-[end]} header, which HTTP and SoundCloud tracks use.</li>
+ * <li>A {@code range=start-end} query parameter, which YouTube tracks use. Their total length comes from the
+ * {@code clen} parameter.</li>
+ * </ul>
+ * Requests without either are cached from the start if their response is audio. If a range is only cached in part, the
+ * cached bytes are followed by a request for the rest, on the condition that the file is still the cached version. If
+ * it isn't, its cached chunks are dropped and the whole range is downloaded instead.
+ */
+class RangeCachingRequestExecutor extends HttpRequestExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(RangeCachingRequestExecutor.class);
+
+    private static final Pattern HEADER_RANGE = Pattern.compile("bytes=(\\d{1,18})-(\\d{0,18})");
+    private static final Pattern QUERY_RANGE = Pattern.compile("(\\d{1,18})-(\\d{1,18})");
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d{1,18})-\\d{1,18}/(\\d{1,18})");
+
+    private final HttpRangeCache cache;
+
+    RangeCachingRequestExecutor(HttpRangeCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context)
+            throws IOException, HttpException {
+        Object target = context.getAttribute(HttpCoreContext.HTTP_TARGET_HOST);
+        RangeRequest range = target instanceof HttpHost ? RangeRequest.of(request, (HttpHost) target) : null;
+        if (range == null) return super.execute(request, conn, context);
+
+        HttpRangeCache.Resource resource = cache.getResource(range.key);
+        long cachedEnd = resource != null ? cache.getCachedEnd(resource, range.start) : range.start;
+        if (resource == null || cachedEnd == range.start) return download(range, conn, context);
+
+        long end = range.getEnd(resource.length);
+        InputStream content;
+        try {
+            content = readCached(resource, range.start, Math.min(cachedEnd, end));
+        } catch (IOException e) {
+            log.warn("Failed to read the cached chunks of {}, downloading them", resource.key, e);
+            return download(range, conn, context);
+        }
+
+        if (cachedEnd < end) {
+            HttpResponse rest = super.execute(range.startingAt(cachedEnd, resource), conn, context);
+            int status = rest.getStatusLine().getStatusCode();
+            HttpEntity entity = rest.getEntity();
+            if (status == HttpStatus.SC_PRECONDITION_FAILED) {
+                log.debug("{} changed, dropping its cached chunks", resource.key);
+                cache.invalidate(resource);
+                // Only the short body of the error, so that the connection can be used for the whole range
+                EntityUtils.consume(entity);
+                return download(range, conn, context);
+            }
+
+            if (status != HttpStatus.SC_OK && status != HttpStatus.SC_PARTIAL_CONTENT || entity == null) return rest;
+            if (!resource.isVersion(resource.length, getHeader(rest, HttpHeaders.ETAG),
+                    getHeader(rest, HttpHeaders.LAST_MODIFIED))) {
+                // The server ignored the condition. Reading the rest of the changed file to reuse the connection would
+                // cost more than a new connection, so the client aborts it and can retry without the cached chunks.
+                cache.invalidate(resource);
+                throw new IOException(resource.key + " changed while its uncached rest was requested");
+            }
+
+            if (status != range.getRestStatus()) return rest;
+            if (entity.getContentLength() >= 0 && entity.getContentLength() != end - cachedEnd) {
+                throw new IOException("Unexpected length of the uncached rest of " + resource.key);
+            }
+
+            content = new SequenceInputStream(content, new TeeInputStream(entity.getContent(), resource, cachedEnd));
+        }
+
+        return respond(range, resource, end, content);
+    }
+
+    private HttpResponse download(RangeRequest range, HttpClientConnection conn, HttpContext context)
+            throws IOException, HttpException {
+        HttpResponse response = super.execute(range.request, conn, context);
+        HttpEntity entity = response.getEntity();
+        // Encoded bytes wouldn't match the offsets of the file
+        if (entity == null || response.containsHeader(HttpHeaders.CONTENT_ENCODING)) return response;
+
+        Long length = range.getLength(response, entity);
+        String contentType = entity.getContentType() != null ? entity.getContentType().getValue() : null;
+        if (length == null || !range.isExplicit() && !isAudio(contentType)) return response;
+
+        HttpRangeCache.Resource resource = cache.putResource(range.key, length, contentType,
+                getHeader(response, HttpHeaders.ETAG), getHeader(response, HttpHeaders.LAST_MODIFIED));
+        response.setEntity(new TeeEntity(entity, resource, range.start));
+        return response;
+    }
+
+    private InputStream readCached(HttpRangeCache.Resource resource, long start, long end) throws IOException {
+        List<ByteBuffer> chunks = new ArrayList<>();
+        for (int chunk = (int) (start / HttpRangeCache.CHUNK_SIZE);
+             (long) chunk * HttpRangeCache.CHUNK_SIZE < end; chunk++) {
+            chunks.add(cache.map(resource, chunk));
+        }
+        chunks.get(0).position((int) (start % HttpRangeCache.CHUNK_SIZE));
+        return new CachedInputStream(chunks, end - start);
+    }
+
+    private static HttpResponse respond(RangeRequest range, HttpRangeCache.Resource resource, long end,
+                                        InputStream content) {
+        BasicHttpResponse response;
+        if (range.style == RangeStyle.HEADER) {
+            response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_PARTIAL_CONTENT, "Partial Content");
+            response.setHeader(HttpHeaders.CONTENT_RANGE,
+                    "bytes " + range.start + "-" + (end - 1) + "/" + resource.length);
+        } else {
+            response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        }
+        response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(end - range.start));
+        if (resource.contentType != null) response.setHeader(HttpHeaders.CONTENT_TYPE, resource.contentType);
+        if (resource.etag != null) response.setHeader(HttpHeaders.ETAG, resource.etag);
+        if (resource.lastModified != null) response.setHeader(HttpHeaders.LAST_MODIFIED, resource.lastModified);
+
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(content);
+        entity.setContentLength(end - range.start);
+        entity.setContentType(resource.contentType);
+        response.setEntity(entity);
+        return response;
+    }
+
+    @Nullable
+    private static String getHeader(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
+    private static boolean isAudio(@Nullable String contentType) {
+        if (contentType == null) return false;
+
+        String type = contentType.toLowerCase();
+        return type.startsWith("audio/") || type.startsWith("video/") || type.startsWith("application/ogg")
+                || type.startsWith("application/octet-stream");
+    }
+
+    private enum RangeStyle {
+        NONE,
+        HEADER,
+        QUERY
+    }
+
+    private static final class RangeRequest {
+        private final String key;
+        private final HttpRequest request;
+        // The request URI without the range parameter
+        private final String target;
+        private final RangeStyle style;
+        private final long start;
+        // Inclusive, -1 for the end of the file
+        private final long end;
+        @Nullable
+        private final Long declaredLength;
+
+        private RangeRequest(String key, HttpRequest request, String target, RangeStyle style, long start, long end,
+                             @Nullable Long declaredLength) {
+            this.key = key;
+            this.request = request;
+            this.target = target;
+            this.style = style;
+            this.start = start;
+            this.end = end;
+            this.declaredLength = declaredLength;
+        }
+
+        /**
+         * @return null if the request can't be served from the cache
+         */
+        @Nullable
+        static RangeRequest of(HttpRequest request, HttpHost host) {
+            if (!"GET".equals(request.getRequestLine().getMethod())) return null;
+
+            URI uri;
+            try {
+                uri = new URI(request.getRequestLine().getUri());
+            } catch (URISyntaxException e) {
+                return null;
+            }
+
+            String queryRange = null;
+            Long declaredLength = null;
+            List<String> params = new ArrayList<>();
+            if (uri.getRawQuery() != null) {
+                for (String param : uri.getRawQuery().split("&")) {
+                    if (param.startsWith("range=")) {
+                        queryRange = param.substring("range=".length());
+                        continue;
+                    }
+                    if (param.matches("clen=\\d{1,18}")) declaredLength = Long.parseLong(param.substring(5));
+                    params.add(param);
+                }
+            }
+
+            String target = uri.getRawPath() + (params.isEmpty() ? "" : "?" + String.join("&", params));
+            String origin = uri.isAbsolute()
+                    ? uri.getScheme() + "://" + uri.getRawAuthority()
+                    : host.toURI();
+            String key = origin + target;
+            if (uri.isAbsolute()) target = origin + target;
+
+            Header header = request.getFirstHeader(HttpHeaders.RANGE);
+            Matcher matcher;
+            RangeStyle style;
+            if (header != null && queryRange == null) {
+                matcher = HEADER_RANGE.matcher(header.getValue());
+                style = RangeStyle.HEADER;
+            } else if (header == null && queryRange != null) {
+                matcher = QUERY_RANGE.matcher(queryRange);
+                style = RangeStyle.QUERY;
+            } else if (header == null) {
+                return new RangeRequest(key, request, target, RangeStyle.NONE, 0, -1, declaredLength);
+            } else {
+                return null;
+            }
+
+            if (!matcher.matches()) return null;
+            long start = Long.parseLong(matcher.group(1));
+            long end = matcher.group(2).isEmpty() ? -1 : Long.parseLong(matcher.group(2));
+            if (end != -1 && end < start) return null;
+            return new RangeRequest(key, request, target, style, start, end, declaredLength);
+        }
+
+        private boolean isExplicit() {
+            return style != RangeStyle.NONE;
+        }
+
+        /**
+         * @return the end of the requested range, exclusive
+         */
+        private long getEnd(long length) {
+            return end == -1 ? length : Math.min(end + 1, length);
+        }
+
+        /**
+         * @return the length of the whole file, null if the response doesn't tell it
+         */
+        @Nullable
+        private Long getLength(HttpResponse response, HttpEntity entity) {
+            int status = response.getStatusLine().getStatusCode();
+            if (style == RangeStyle.HEADER) {
+                Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+                if (status != HttpStatus.SC_PARTIAL_CONTENT || contentRange == null) return null;
+
+                Matcher matcher = CONTENT_RANGE.matcher(contentRange.getValue());
+                if (!matcher.matches() || Long.parseLong(matcher.group(1)) != start) return null;
+                return Long.parseLong(matcher.group(2));
+            }
+
+            if (status != HttpStatus.SC_OK) return null;
+            if (style == RangeStyle.QUERY) return declaredLength;
+            return entity.getContentLength() >= 0 ? entity.getContentLength() : declaredLength;
+        }
+
+        /**
+         * @return a copy of the request that asks for the rest of the range from the position, if the file is still the
+         * version of the resource
+         */
+        private HttpRequest startingAt(long position, HttpRangeCache.Resource resource) {
+            String uri = target;
+            if (style == RangeStyle.QUERY) {
+                uri += (target.contains("?") ? "&" : "?") + "range=" + position + "-" + end;
+            }
+
+            BasicHttpRequest copy = new BasicHttpRequest("GET", uri, request.getRequestLine().getProtocolVersion());
+            copy.setHeaders(request.getAllHeaders());
+            if (style != RangeStyle.QUERY) {
+                copy.setHeader(HttpHeaders.RANGE, "bytes=" + position + "-" + (end != -1 ? end : ""));
+            }
+            // Weak validators can't be used in If-Match
+            if (resource.etag != null && !resource.etag.startsWith("W/")) {
+                copy.setHeader(HttpHeaders.IF_MATCH, resource.etag);
+            } else if (resource.lastModified != null) {
+                copy.setHeader(HttpHeaders.IF_UNMODIFIED_SINCE, resource.lastModified);
+            }
+            return copy;
+        }
+
+        private int getRestStatus() {
+            return style == RangeStyle.QUERY ? HttpStatus.SC_OK : HttpStatus.SC_PARTIAL_CONTENT;
+        }
+    }
+
+    private class TeeEntity extends HttpEntityWrapper {
+        private final HttpRangeCache.Resource resource;
+        private final long start;
+        @Nullable
+        private InputStream content = null;
+
+        private TeeEntity(HttpEntity wrapped, HttpRangeCache.Resource resource, long start) {
+            super(wrapped);
+            this.resource = resource;
+            this.start = start;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if (content == null) content = new TeeInputStream(super.getContent(), resource, start);
+            return content;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try (InputStream in = getContent()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes downloaded bytes through, and stores the chunks that were downloaded completely. Each chunk is appended
+     * to its file as it arrives, so that a download holds no more than the bytes of a read in memory. The file is only
+     * open during a write, as the stream isn't closed if its response is closed without reading it to its end.
+     */
+    private class TeeInputStream extends FilterInputStream {
+        private final HttpRangeCache.Resource resource;
+        private long position;
+        // The file of the chunk being downloaded, null while the current chunk is skipped
+        @Nullable
+        private Path chunk = null;
+        private long chunkSize = 0;
+        private long filled = 0;
+
+        private TeeInputStream(InputStream in, HttpRangeCache.Resource resource, long position) {
+            super(in);
+            this.resource = resource;
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read <= 0) return read;
+
+            HttpRangeCache.onRead(false, read);
+            collect(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes would leave a hole in the chunk
+            abandonChunk();
+            long skipped = super.skip(n);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                abandonChunk();
+            }
+        }
+
+        private void collect(byte[] b, int off, int len) {
+            while (len > 0) {
+                if (position % HttpRangeCache.CHUNK_SIZE == 0) startChunk();
+
+                int count = (int) Math.min(len, HttpRangeCache.CHUNK_SIZE - position % HttpRangeCache.CHUNK_SIZE);
+                if (chunk != null) {
+                    if (filled + count > chunkSize) {
+                        // Longer than the length the file was said to have
+                        abandonChunk();
+                    } else {
+                        write(b, off, count);
+                    }
+                }
+                position += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        private void startChunk() {
+            abandonChunk();
+            int index = (int) (position / HttpRangeCache.CHUNK_SIZE);
+            long size = Math.min(HttpRangeCache.CHUNK_SIZE, resource.length - position);
+            if (size <= 0 || cache.contains(resource, index)) return;
+
+            chunk = cache.createTempFile(resource, index);
+            chunkSize = size;
+            filled = 0;
+        }
+
+        private void write(byte[] b, int off, int len) {
+            if (chunk == null) return;
+
+            try (FileChannel channel = FileChannel.open(chunk, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to write a chunk of {}", resource.key, e);
+                abandonChunk();
+                return;
+            }
+
+            filled += len;
+            if (filled == chunkSize) {
+                cache.store(resource, (int) (position / HttpRangeCache.CHUNK_SIZE), chunk, chunkSize);
+                chunk = null;
+            }
+        }
+
+        private void abandonChunk() {
+            if (chunk == null) return;
+
+            cache.discard(chunk);
+            chunk = null;
+        }
+    }
+
+    /**
+     * Reads the mapped chunks of a cached range.
+     */
+    private static class CachedInputStream extends InputStream {
+        private final List<ByteBuffer> chunks;
+        private int current = 0;
+        private long remaining;
+
+        private CachedInputStream(List<ByteBuffer> chunks, long remaining) {
+            this.chunks = chunks;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (remaining == 0) return -1;
+
+            ByteBuffer chunk = chunks.get(current);
+            while (!chunk.hasRemaining()) {
+                chunk = chunks.get(++current);
+            }
+
+            int read = (int) Math.min(Math.min(len, chunk.remaining()), remaining);
+            chunk.get(b, off, read);
+            remaining -= read;
+            HttpRangeCache.onRead(true, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, remaining);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A live stream played by a single upstream player. Its frames are pulled every 20ms into a ring of the most recent
+ * second of audio, from which every subscribed player copies the frames it hasn't sent yet. Subscribers start a few
+ * frames behind the live edge, so that the jitter of the pump doesn't leave them without a frame, and skip back to
+ * that distance if they fall behind by more than the ring.
+ */
+class SharedStream extends AudioEventAdapter {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedStream.class);
+
+    private static final int FRAME_DURATION_MS = 20;
+    static final int RING_FRAMES = 50;
+    // How far behind the most recent frame subscribers start
+    static final int JOIN_DELAY_FRAMES = 4;
+
+    private final SharedStreamHub hub;
+    private final String key;
+    private final AudioPlayer upstream;
+    // Only accessed by the pump
+    private final ByteBuffer pumpBuffer =
+            ByteBuffer.allocate(StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize());
+    private final MutableAudioFrame pumpFrame = new MutableAudioFrame();
+    // Guarded by this
+    private final byte[][] ring = new byte[RING_FRAMES][StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize()];
+    private final int[] lengths = new int[RING_FRAMES];
+    private long written = 0;
+    // Guarded by the hub
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private ScheduledFuture<?> pump;
+
+    SharedStream(SharedStreamHub hub, String key, AudioPlayer upstream) {
+        this.hub = hub;
+        this.key = key;
+        this.upstream = upstream;
+        pumpFrame.setBuffer(pumpBuffer);
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    void start(AudioTrack track, ScheduledExecutorService executor) {
+        upstream.addListener(this);
+        upstream.playTrack(track);
+        pump = executor.scheduleAtFixedRate(this::pump, 0, FRAME_DURATION_MS, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        pump.cancel(false);
+        upstream.destroy();
+    }
+
+    Subscription addSubscription(AudioTrack track, Player player) {
+        Subscription subscription;
+        synchronized (this) {
+            subscription = new Subscription(track, player, Math.max(0, written - JOIN_DELAY_FRAMES));
+        }
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    boolean removeSubscription(Subscription subscription) {
+        return subscriptions.remove(subscription);
+    }
+
+    boolean hasSubscriptions() {
+        return !subscriptions.isEmpty();
+    }
+
+    private void pump() {
+        try {
+            if (!upstream.provide(pumpFrame)) return;
+
+            pumpBuffer.flip();
+            synchronized (this) {
+                int slot = (int) (written % RING_FRAMES);
+                lengths[slot] = pumpBuffer.remaining();
+                pumpBuffer.get(ring[slot], 0, lengths[slot]);
+                written++;
+            }
+        } catch (Exception e) {
+            log.error("Failed to pull a frame of shared stream {}", key, e);
+        }
+    }
+
+    private List<Subscription> takeSubscriptions() {
+        synchronized (hub) {
+            return new ArrayList<>(subscriptions);
+        }
+    }
+
+    @Override
+    public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
+        // Stopped by the hub after the last subscriber left
+        if (endReason == AudioTrackEndReason.CLEANUP || endReason == AudioTrackEndReason.STOPPED) return;
+
+        hub.onEnded(this);
+        for (Subscription subscription : takeSubscriptions()) {
+            subscription.player.onFrameSourceEnd(subscription, endReason);
+        }
+    }
+
+    @Override
+    public void onTrackException(AudioPlayer player, AudioTrack track, FriendlyException exception) {
+        for (Subscription subscription : takeSubscriptions()) {
+            subscription.player.onFrameSourceException(subscription, exception);
+        }
+    }
+
+    @Override
+    public void onTrackStuck(AudioPlayer player, AudioTrack track, long thresholdMs) {
+        for (Subscription subscription : takeSubscriptions()) {
+            subscription.player.onFrameSourceStuck(subscription, thresholdMs);
+        }
+    }
+
+    /**
+     * A player's view of the stream.
+     */
+    class Subscription implements FrameSource {
+        private final AudioTrack track;
+        private final Player player;
+        // Only accessed by the audio send thread of the player
+        private long next;
+
+        private Subscription(AudioTrack track, Player player, long next) {
+            this.track = track;
+            this.player = player;
+            this.next = next;
+        }
+
+        SharedStream getStream() {
+            return SharedStream.this;
+        }
+
+        @Override
+        public AudioTrack getTrack() {
+            return track;
+        }
+
+        @Override
+        public long getPosition() {
+            AudioTrack playing = upstream.getPlayingTrack();
+            return playing != null ? playing.getPosition() : 0;
+        }
+
+        @Override
+        public void seekTo(long position) {
+        }
+
+        @Override
+        public boolean provide(ByteBuffer buffer) {
+            synchronized (SharedStream.this) {
+                if (next >= written) return false;
+                if (written - next > RING_FRAMES) next = written - JOIN_DELAY_FRAMES;
+
+                int slot = (int) (next % RING_FRAMES);
+                buffer.clear();
+                buffer.put(ring[slot], 0, lengths[slot]);
+                next++;
+                return true;
+            }
+        }
+
+        @Override
+        public boolean isFinished() {
+            // Ends are signalled by the upstream player instead
+            return false;
+        }
+
+        @Override
+        public void close() {
+            hub.unsubscribe(this);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import io.prometheus.client.Gauge;
+import lavalink.server.config.ServerConfig;
+import lavalink.server.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Lets players that play the same live stream share a single upstream connection and audio pipeline. The first player
+ * of a stream starts it on the node wide audio player manager, every player after that only subscribes to its frames.
+ * The stream is stopped when its last subscriber leaves.
+ * <p>
+ * The upstream track is decoded anew on the node wide manager rather than cloned, as the track of the first player
+ * belongs to the audio player manager of its connection, which may be shut down while the stream goes on.
+ * <p>
+ * Shared frames are passed through as is, so only players without volume or equalizer changes are subscribed, see
+ * {@link Player#play}. Tracks that aren't streams are always played by their own player.
+ */
+@Component
+public class SharedStreamHub {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedStreamHub.class);
+
+    private static final Gauge activeStreams = Gauge.build()
+            .name("lavalink_shared_streams")
+            .help("Live streams played by a shared upstream player")
+            .register();
+    private static final Gauge subscribers = Gauge.build()
+            .name("lavalink_shared_stream_subscribers")
+            .help("Players receiving the frames of a shared live stream")
+            .register();
+
+    private final AudioPlayerManager audioPlayerManager;
+    private final boolean enabled;
+    @Nullable
+    private final ScheduledExecutorService executor;
+    // Guarded by this
+    private final Map<String, SharedStream> streams = new HashMap<>();
+
+    public SharedStreamHub(AudioPlayerManager audioPlayerManager, ServerConfig serverConfig) {
+        this.audioPlayerManager = audioPlayerManager;
+        this.enabled = serverConfig.isSharedStreams();
+        this.executor = enabled ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "shared-streams");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * @return whether the track can be subscribed to rather than played by its own player
+     */
+    boolean isShareable(AudioTrack track) {
+        return enabled && track.getInfo().isStream && track.getSourceManager() != null;
+    }
+
+    /**
+     * @return the subscription, or null if the stream can't be started, in which case the player has to play the track
+     * itself
+     */
+    @Nullable
+    synchronized SharedStream.Subscription subscribe(AudioTrack track, Player player) {
+        String key = track.getSourceManager().getSourceName() + ":" + track.getIdentifier();
+        SharedStream stream = streams.get(key);
+        if (stream == null) {
+            AudioTrack upstreamTrack = createUpstreamTrack(track);
+            if (upstreamTrack == null) return null;
+
+            stream = new SharedStream(this, key, audioPlayerManager.createPlayer());
+            streams.put(key, stream);
+            activeStreams.inc();
+            log.info("Starting shared stream {}", key);
+            stream.start(upstreamTrack, executor);
+        }
+
+        subscribers.inc();
+        return stream.addSubscription(track, player);
+    }
+
+    @Nullable
+    private AudioTrack createUpstreamTrack(AudioTrack track) {
+        try {
+            AudioTrack upstreamTrack = Util.toAudioTrack(audioPlayerManager, Util.toMessage(audioPlayerManager, track));
+            if (upstreamTrack == null) log.warn("Failed to decode shared stream {}", track.getIdentifier());
+            return upstreamTrack;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to decode shared stream {}", track.getIdentifier(), e);
+            return null;
+        }
+    }
+
+    synchronized void unsubscribe(SharedStream.Subscription subscription) {
+        SharedStream stream = subscription.getStream();
+        if (!stream.removeSubscription(subscription)) return;
+        subscribers.dec();
+
+        if (!stream.hasSubscriptions() && streams.remove(stream.getKey(), stream)) {
+            activeStreams.dec();
+            log.info("Stopping shared stream {} without subscribers", stream.getKey());
+            stream.stop();
+        }
+    }
+
+    /**
+     * Called when the upstream track of a stream has ended on its own. The subscribers are notified by the stream.
+     */
+    synchronized void onEnded(SharedStream stream) {
+        if (streams.remove(stream.getKey(), stream)) {
+            activeStreams.dec();
+            stream.stop();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) executor.shutdown();
+    }
+}
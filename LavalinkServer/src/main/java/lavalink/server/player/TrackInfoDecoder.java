@@ -0,0 +1,95 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import org.apache.commons.codec.binary.Base64;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Reads the metadata of an encoded track straight from lavaplayer's binary track format, without asking a source
+ * manager to build a full {@link AudioTrack}.
+ * <p>
+ * A track is encoded as a single message: a 4 byte header holding the message flags and size, followed by the optional
+ * version byte, the {@link AudioTrackInfo} fields, the source specific data and finally the position as a long. The
+ * source specific data is skipped over by reading the position from the end of the message.
+ */
+public class TrackInfoDecoder {
+
+    private static final int TRACK_INFO_VERSIONED = 1;
+    private static final int MAX_SUPPORTED_VERSION = 2;
+
+    private static final int HEADER_SIZE = 4;
+    private static final int POSITION_SIZE = 8;
+
+    /**
+     * @return the decoded metadata, or null if the track is in a format this decoder does not understand, in which case
+     * the track has to be decoded fully
+     */
+    @Nullable
+    public static DecodedTrackInfo decode(String encoded) {
+        byte[] bytes = Base64.decodeBase64(encoded);
+        if (bytes.length < HEADER_SIZE) return null;
+
+        int header = readInt(bytes, 0);
+        int flags = (header & 0xC0000000) >>> 30;
+        int size = header & 0x3FFFFFFF;
+        if (size < POSITION_SIZE || HEADER_SIZE + size > bytes.length) return null;
+
+        try (DataInputStream input = new DataInputStream(
+                new ByteArrayInputStream(bytes, HEADER_SIZE, size - POSITION_SIZE))) {
+
+            int version = (flags & TRACK_INFO_VERSIONED) != 0 ? input.readUnsignedByte() : 1;
+            if (version > MAX_SUPPORTED_VERSION) return null;
+
+            String title = input.readUTF();
+            String author = input.readUTF();
+            long length = input.readLong();
+            String identifier = input.readUTF();
+            boolean isStream = input.readBoolean();
+            String uri = version >= 2 && input.readBoolean() ? input.readUTF() : null;
+
+            long position = readLong(bytes, HEADER_SIZE + size - POSITION_SIZE);
+            AudioTrackInfo info = new AudioTrackInfo(title, author, length, identifier, isStream, uri);
+
+            // Lavaplayer's tracks are seekable unless they are streams
+            return new DecodedTrackInfo(info, !isStream, position);
+        } catch (IOException e) {
+            // Truncated or malformed, let the full decoder deal with it
+            return null;
+        }
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24
+                | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8
+                | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return ((long) readInt(bytes, offset) << 32) | (readInt(bytes, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The fields of a track that are reported by the decode endpoints.
+     */
+    public static class DecodedTrackInfo {
+        public final AudioTrackInfo info;
+        public final boolean isSeekable;
+        public final long position;
+
+        DecodedTrackInfo(AudioTrackInfo info, boolean isSeekable, long position) {
+            this.info = info;
+            this.isSeekable = isSeekable;
+            this.position = position;
+        }
+
+        public static DecodedTrackInfo of(AudioTrack track) {
+            return new DecodedTrackInfo(track.getInfo(), track.isSeekable(), track.getPosition());
+        }
+    }
+}
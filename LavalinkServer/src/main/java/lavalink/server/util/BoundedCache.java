@@ -0,0 +1,146 @@
+package lavalink.server.util;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A size bounded cache that evicts the least recently used entry once full. Each entry additionally expires after its
+ * own time to live.
+ * <p>
+ * Hits, misses, evictions and the current size are exported to prometheus, labeled with the name of the cache.
+ */
+public class BoundedCache<K, V> {
+
+    private static final Counter hits = Counter.build()
+            .name("lavalink_cache_hits_total")
+            .help("Cache lookups that found a live entry")
+            .labelNames("cache")
+            .register();
+
+    private static final Counter misses = Counter.build()
+            .name("lavalink_cache_misses_total")
+            .help("Cache lookups that found no live entry")
+            .labelNames("cache")
+            .register();
+
+    private static final Counter evictions = Counter.build()
+            .name("lavalink_cache_evictions_total")
+            .help("Cache entries removed because the cache was full or the entry expired")
+            .labelNames("cache", "cause")
+            .register();
+
+    private static final Gauge entries = Gauge.build()
+            .name("lavalink_cache_entries")
+            .help("Entries currently held by a cache")
+            .labelNames("cache")
+            .register();
+
+    private final int maxSize;
+    private final LinkedHashMap<K, Entry<V>> map;
+
+    private final Counter.Child hitCounter;
+    private final Counter.Child missCounter;
+    private final Counter.Child sizeEvictionCounter;
+    private final Counter.Child expiryEvictionCounter;
+    private final Gauge.Child sizeGauge;
+
+    /**
+     * @param name    used to label the metrics of this cache
+     * @param maxSize maximum number of entries held before the least recently used one is evicted
+     */
+    public BoundedCache(String name, int maxSize) {
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be positive, got " + maxSize);
+
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() <= BoundedCache.this.maxSize) return false;
+
+                sizeEvictionCounter.inc();
+                return true;
+            }
+        };
+
+        this.hitCounter = hits.labels(name);
+        this.missCounter = misses.labels(name);
+        this.sizeEvictionCounter = evictions.labels(name, "size");
+        this.expiryEvictionCounter = evictions.labels(name, "expired");
+        this.sizeGauge = entries.labels(name);
+    }
+
+    /**
+     * @return the cached value, or null if there is none or it has expired
+     */
+    @Nullable
+    public synchronized V get(K key) {
+        Entry<V> entry = map.get(key);
+
+        if (entry == null) {
+            missCounter.inc();
+            return null;
+        }
+
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            map.remove(key);
+            expiryEvictionCounter.inc();
+            missCounter.inc();
+            sizeGauge.set(map.size());
+            return null;
+        }
+
+        hitCounter.inc();
+        return entry.value;
+    }
+
+    /**
+     * Caches a value for the given amount of time. A time to live of zero or less does not cache the value, and
+     * removes any value previously cached for the key.
+     */
+    public synchronized void put(K key, V value, long ttlMs) {
+        if (ttlMs <= 0) {
+            map.remove(key);
+        } else {
+            map.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMs));
+        }
+
+        sizeGauge.set(map.size());
+    }
+
+    public synchronized void invalidate(K key) {
+        map.remove(key);
+        sizeGauge.set(map.size());
+    }
+
+    /**
+     * Removes the entries whose key matches the predicate.
+     */
+    public synchronized void invalidateIf(Predicate<? super K> predicate) {
+        map.keySet().removeIf(predicate);
+        sizeGauge.set(map.size());
+    }
+
+    public synchronized void invalidateAll() {
+        map.clear();
+        sizeGauge.set(0);
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
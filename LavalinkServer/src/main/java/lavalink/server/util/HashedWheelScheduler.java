@@ -0,0 +1,244 @@
+package lavalink.server.util;
+
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Node-wide timer for the periodic work of websocket connections and players, like player updates and stats.
+ * <p>
+ * Timeouts are kept in a hashed wheel that is advanced by a single timer thread, and expired timeouts are run on a
+ * small pool of worker threads. The number of threads therefore stays the same no matter how many clients are
+ * connected or how many players are playing. The price is precision: timeouts run up to one tick late.
+ * <p>
+ * Periodic tasks are rescheduled once their run completes, so a slow run delays the next one instead of overlapping it.
+ * Tasks scheduled after the scheduler has been shut down are cancelled right away.
+ */
+@Component
+public class HashedWheelScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(HashedWheelScheduler.class);
+
+    private static final long DEFAULT_TICK_MS = 100;
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+    private static final int DEFAULT_WORKERS = 2;
+
+    private static final Histogram lag = Histogram.build()
+            .name("lavalink_scheduler_lag_seconds")
+            .help("Delay between the time a scheduled task was due and the time it started running")
+            .buckets(0.005, 0.025, 0.050, 0.100, 0.200, 0.400, 0.800, 1.600)
+            .register();
+    private static final Gauge pendingTasks = Gauge.build()
+            .name("lavalink_scheduler_pending_tasks")
+            .help("Tasks waiting in the scheduler's timer wheel")
+            .register();
+    private static final Gauge queuedTasks = Gauge.build()
+            .name("lavalink_scheduler_queued_tasks")
+            .help("Due tasks waiting for a scheduler worker thread")
+            .register();
+
+    private final long tickNanos;
+    private final List<Timeout>[] wheel;
+    private final int mask;
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger timeoutCount = new AtomicInteger();
+    private final ThreadPoolExecutor workers;
+    private final Thread timerThread;
+    private final long startTime;
+    private volatile boolean running = true;
+
+    public HashedWheelScheduler() {
+        this(DEFAULT_TICK_MS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE, DEFAULT_WORKERS);
+    }
+
+    /**
+     * @param wheelSize the number of buckets of the wheel, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    HashedWheelScheduler(long tickDuration, TimeUnit unit, int wheelSize, int workerCount) {
+        this.tickNanos = unit.toNanos(tickDuration);
+
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.wheel = new List[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        this.mask = size - 1;
+
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), daemonThreads("scheduler-worker"));
+
+        this.startTime = System.nanoTime();
+        this.timerThread = daemonThreads("scheduler-timer").newThread(this::runTimer);
+        timerThread.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return add(new Timeout(task, System.nanoTime() + unit.toNanos(delay), 0));
+    }
+
+    public Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) throw new IllegalArgumentException("Period must be positive");
+
+        return add(new Timeout(task, System.nanoTime() + unit.toNanos(initialDelay), unit.toNanos(period)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        timerThread.interrupt();
+        workers.shutdown();
+    }
+
+    private Timeout add(Timeout timeout) {
+        // Players and connections may still schedule work while the node shuts down, it is dropped instead
+        if (!running) {
+            timeout.cancel();
+            return timeout;
+        }
+
+        timeoutCount.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    private void runTimer() {
+        long tick = 0;
+
+        while (running) {
+            long tickEnd = startTime + (tick + 1) * tickNanos;
+            long sleepNanos = tickEnd - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (!running) return;
+                }
+                continue;
+            }
+
+            transferNewTimeouts(tick);
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+
+            pendingTasks.set(timeoutCount.get());
+            queuedTasks.set(workers.getQueue().size());
+        }
+    }
+
+    private void transferNewTimeouts(long currentTick) {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.isCancelled()) {
+                timeoutCount.decrementAndGet();
+                continue;
+            }
+
+            long dueTick = Math.max(0, (timeout.deadline - startTime) / tickNanos);
+            timeout.remainingRounds = (dueTick - currentTick) / wheel.length;
+
+            // Timeouts that are already due go in the current bucket
+            long tick = Math.max(dueTick, currentTick);
+            wheel[(int) (tick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+
+            if (timeout.isCancelled()) {
+                iterator.remove();
+                timeoutCount.decrementAndGet();
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                iterator.remove();
+                timeoutCount.decrementAndGet();
+                try {
+                    workers.execute(timeout::run);
+                } catch (RejectedExecutionException e) {
+                    // Shut down while expiring this bucket
+                    return;
+                }
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A task that has been scheduled. Periodic tasks stay pending until they are cancelled.
+     */
+    public final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long periodNanos;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        // Only accessed by the timer thread, or by a worker before the timeout is handed back to the timer thread
+        private long deadline;
+        private long remainingRounds;
+
+        private Timeout(Runnable task, long deadline, long periodNanos) {
+            this.task = task;
+            this.deadline = deadline;
+            this.periodNanos = periodNanos;
+        }
+
+        /**
+         * @return true if the task was pending and will not run anymore, false if it already ran or was cancelled
+         */
+        public boolean cancel() {
+            return state.compareAndSet(PENDING, CANCELLED);
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        private void run() {
+            if (periodNanos == 0 && !state.compareAndSet(PENDING, EXPIRED)) return;
+            if (periodNanos != 0 && state.get() != PENDING) return;
+
+            lag.observe((System.nanoTime() - deadline) / (double) TimeUnit.SECONDS.toNanos(1));
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                log.error("Scheduled task threw an exception", t);
+            }
+
+            if (periodNanos != 0 && state.get() == PENDING && running) {
+                // Skip runs that were missed rather than running them back to back
+                deadline = Math.max(deadline + periodNanos, System.nanoTime());
+                add(this);
+            }
+        }
+    }
+}
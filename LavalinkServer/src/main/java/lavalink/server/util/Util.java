@@ -44,10 +44,19 @@ public class Util {
         return audioPlayerManager.decodeTrack(new MessageInput(bais)).decodedTrack;
     }
 
+    /**
+     * Encodes a track, or returns the encoded form the track was created from. The encoded form is memoized in the
+     * user data of the track, so it is only ever serialized once.
+     */
     public static String toMessage(AudioPlayerManager audioPlayerManager, AudioTrack track) throws IOException {
+        Object userData = track.getUserData();
+        if (userData instanceof String) return (String) userData;
+
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         audioPlayerManager.encodeTrack(new MessageOutput(baos), track);
-        return Base64.encodeBase64String(baos.toByteArray());
+        String encoded = Base64.encodeBase64String(baos.toByteArray());
+        track.setUserData(encoded);
+        return encoded;
     }
 
 }
@@ -0,0 +1,61 @@
+package lavalink.server.io;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CborCodecTest {
+
+    @Test
+    public void roundTripsMessages() throws IOException {
+        JSONObject state = new JSONObject();
+        state.put("time", 1500467109000L);
+        state.put("position", 60000);
+
+        JSONObject bands = new JSONObject();
+        bands.put("band", 0);
+        bands.put("gain", 0.25);
+
+        JSONObject json = new JSONObject();
+        json.put("op", "playerUpdate");
+        json.put("guildId", "123456789012345678");
+        json.put("state", state);
+        json.put("bands", new JSONArray().put(bands));
+        json.put("noReplace", false);
+        json.put("key", JSONObject.NULL);
+
+        JSONObject decoded = CborCodec.decode(CborCodec.encode(json));
+
+        assertTrue(json.similar(decoded));
+        assertEquals(1500467109000L, decoded.getJSONObject("state").getLong("time"));
+        assertEquals(0.25f, decoded.getJSONArray("bands").getJSONObject(0).getFloat("gain"), 0);
+    }
+
+    @Test
+    public void isSmallerThanJson() throws IOException {
+        JSONObject json = new JSONObject();
+        json.put("op", "playerUpdates");
+        json.put("time", System.currentTimeMillis());
+        JSONArray players = new JSONArray();
+        for (int i = 0; i < 100; i++) {
+            players.put(new JSONObject()
+                    .put("guildId", Long.toString(100000000000000000L + i))
+                    .put("position", i * 1000));
+        }
+        json.put("players", players);
+
+        int jsonBytes = json.toString().getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(CborCodec.encode(json).length < jsonBytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNonMaps() throws IOException {
+        CborCodec.decode(new byte[]{(byte) 0x83, 1, 2, 3}); // [1, 2, 3]
+    }
+}
@@ -0,0 +1,91 @@
+package lavalink.server.io;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InboundMessageTest {
+
+    @Test
+    public void readsFieldsInAnyOrder() {
+        InboundMessage message = InboundMessage.Companion.fromJson("{\"track\":\"QAAA\",\"volume\":125,"
+                + "\"unknown\":{\"nested\":[1,2]},\"startTime\":\"60000\",\"guildId\":\"1234\",\"op\":\"play\"}");
+
+        assertEquals("play", message.getOp());
+        assertEquals("1234", message.getGuildId());
+        assertEquals("QAAA", message.getTrack());
+        assertEquals(Integer.valueOf(125), message.getVolume());
+        assertEquals(Long.valueOf(60000), message.getStartTime());
+        assertNull(message.getNoReplace());
+    }
+
+    @Test
+    public void readsVoiceUpdateEvents() {
+        InboundMessage message = InboundMessage.Companion.fromJson("{\"op\":\"voiceUpdate\",\"guildId\":\"1234\","
+                + "\"sessionId\":\"abc\","
+                + "\"event\":{\"token\":\"secret\",\"guild_id\":\"1234\",\"endpoint\":\"x:80\"}}");
+
+        assertTrue(message.getHasEvent());
+        assertEquals("secret", message.getToken());
+        assertEquals("x:80", message.getEndpoint());
+        assertEquals("abc", message.getSessionId());
+    }
+
+    @Test
+    public void treatsNullLikeMissing() {
+        InboundMessage message = InboundMessage.Companion.fromJson("{\"op\":\"configureResuming\",\"key\":null}");
+
+        assertNull(message.getKey());
+        assertNull(message.getTimeout());
+        assertFalse(message.getHasEvent());
+    }
+
+    @Test
+    public void readsCbor() throws IOException {
+        JSONObject json = new JSONObject()
+                .put("op", "equalizer")
+                .put("guildId", "1234")
+                .put("bands", new JSONArray().put(new JSONObject().put("band", 3).put("gain", 0.25)));
+        byte[] bytes = CborCodec.encode(json);
+
+        InboundMessage message = InboundMessage.Companion.fromCbor(bytes, 0, bytes.length);
+
+        assertEquals("equalizer", message.getOp());
+        assertEquals(1, message.getBands().size());
+        assertEquals(3, message.getBands().get(0).getBand());
+        assertEquals(0.25f, message.getBands().get(0).getGain(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingRequiredFields() {
+        InboundMessage message = InboundMessage.Companion.fromJson("{\"op\":\"seek\"}");
+        message.required(message.getPosition(), "position");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnconvertibleNumbers() {
+        InboundMessage.Companion.fromJson("{\"op\":\"seek\",\"guildId\":\"1234\",\"position\":\"soon\"}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsObjectsForScalarFields() {
+        InboundMessage.Companion.fromJson("{\"op\":\"volume\",\"volume\":{\"value\":50},\"guildId\":\"1234\"}");
+    }
+
+    @Test
+    public void convertsStringsOfScalars() {
+        InboundMessage message = InboundMessage.Companion.fromJson("{\"op\":\"pause\",\"guildId\":1234,"
+                + "\"pause\":\"true\",\"volume\":\"50\"}");
+
+        assertEquals("1234", message.getGuildId());
+        assertEquals(Boolean.TRUE, message.getPause());
+        assertEquals(Integer.valueOf(50), message.getVolume());
+    }
+}
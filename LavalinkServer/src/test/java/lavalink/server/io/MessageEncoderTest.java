@@ -0,0 +1,50 @@
+package lavalink.server.io;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageEncoderTest {
+
+    @Test
+    public void encodesEventsLikeOrgJson() throws IOException {
+        JSONObject expected = new JSONObject();
+        expected.put("op", "event");
+        expected.put("type", "TrackExceptionEvent");
+        expected.put("guildId", "1234");
+        expected.put("track", JSONObject.NULL);
+        expected.put("error", "Something \"broke\"");
+
+        OutboundMessage message = OutboundMessage.trackException("1234", null, "Something \"broke\"");
+
+        assertTrue(expected.similar(json(message)));
+    }
+
+    @Test
+    public void omitsMissingPositions() throws IOException {
+        JSONObject state = json(OutboundMessage.playerUpdate("1234", null, 42)).getJSONObject("state");
+
+        assertFalse(state.has("position"));
+        assertEquals(42, state.getLong("time"));
+    }
+
+    @Test
+    public void encodesCbor() throws IOException {
+        OutboundMessage message = OutboundMessage.playerUpdates(42, new String[]{"1", "2"}, new long[]{1000, 2000});
+
+        JSONObject decoded = CborCodec.decode(MessageEncoder.encode(message, WireProtocol.CBOR));
+
+        assertTrue(json(message).similar(decoded));
+        assertEquals(2000, decoded.getJSONArray("players").getJSONObject(1).getLong("position"));
+    }
+
+    private static JSONObject json(OutboundMessage message) throws IOException {
+        return new JSONObject(new String(MessageEncoder.encode(message, WireProtocol.JSON), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,69 @@
+package lavalink.server.io;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResumeBufferTest {
+
+    @Test
+    public void keepsLatestUpdatePerKeyAfterEvents() throws IOException {
+        ResumeBuffer buffer = new ResumeBuffer(ResumeBuffer.DEFAULT_MAX_BYTES);
+        OutboundMessage first = OutboundMessage.trackEnd("1", null, "FINISHED");
+        OutboundMessage second = OutboundMessage.trackEnd("2", null, "FINISHED");
+        OutboundMessage latest = OutboundMessage.playerUpdate("1", 2000L, 2);
+
+        buffer.add(OutboundMessage.playerUpdate("1", 1000L, 1), "1");
+        buffer.add(first, null);
+        buffer.add(latest, "1");
+        buffer.add(second, null);
+
+        ResumeBuffer.Backlog backlog = buffer.drain();
+        List<OutboundMessage> messages = backlog.messages;
+        assertEquals(3, messages.size());
+        assertSame(first, messages.get(0));
+        assertSame(second, messages.get(1));
+        assertSame(latest, messages.get(2));
+        assertEquals(0, backlog.droppedEvents);
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void dropsOldestEventsPastLimit() throws IOException {
+        OutboundMessage event = OutboundMessage.trackStuck("1", null, 10000);
+        int size = MessageEncoder.encode(event, WireProtocol.JSON).length;
+        ResumeBuffer buffer = new ResumeBuffer(size * 2);
+        OutboundMessage last = OutboundMessage.trackStuck("2", null, 10000);
+
+        buffer.add(event, null);
+        buffer.add(event, null);
+        buffer.add(event, null);
+        buffer.add(last, null);
+
+        ResumeBuffer.Backlog backlog = buffer.drain();
+        assertEquals(2, backlog.droppedEvents);
+        assertEquals(2, backlog.messages.size());
+        assertSame(last, backlog.messages.get(1));
+    }
+
+    @Test
+    public void doesNotDropEventsForUpdates() throws IOException {
+        OutboundMessage event = OutboundMessage.trackStuck("1", null, 10000);
+        ResumeBuffer buffer = new ResumeBuffer(MessageEncoder.encode(event, WireProtocol.JSON).length);
+
+        buffer.add(event, null);
+        for (int i = 0; i < 100; i++) {
+            buffer.add(OutboundMessage.playerUpdate(String.valueOf(i), 1000L, 1), String.valueOf(i));
+        }
+
+        ResumeBuffer.Backlog backlog = buffer.drain();
+        assertEquals(0, backlog.droppedEvents);
+        assertEquals(101, backlog.messages.size());
+        assertSame(event, backlog.messages.get(0));
+    }
+}
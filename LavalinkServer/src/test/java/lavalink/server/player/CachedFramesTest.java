@@ -0,0 +1,83 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class CachedFramesTest {
+
+    @Test
+    public void playsFramesInOrder() {
+        FrameSource source = frames(3000).play(mock(AudioTrack.class));
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+
+        for (int i = 0; i < 3000; i++) {
+            assertTrue(source.provide(buffer));
+            assertFrame(i, buffer);
+        }
+        assertFalse(source.provide(buffer));
+        assertTrue(source.isFinished());
+        assertEquals(60000, source.getPosition());
+    }
+
+    @Test
+    public void seeksToTheFrameOfAPosition() {
+        FrameSource source = frames(100).play(mock(AudioTrack.class));
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+
+        source.seekTo(1010);
+        assertTrue(source.provide(buffer));
+        assertFrame(50, buffer);
+
+        source.seekTo(5000);
+        assertFalse(source.provide(buffer));
+    }
+
+    @Test
+    public void survivesARoundTrip() throws IOException {
+        CachedFrames frames = frames(500);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        frames.writeTo(new DataOutputStream(out));
+
+        CachedFrames read = CachedFrames.readFrom(new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+
+        assertEquals(frames.getFrameCount(), read.getFrameCount());
+        assertEquals(frames.getSize(), read.getSize());
+        FrameSource source = read.play(mock(AudioTrack.class));
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        for (int i = 0; i < 500; i++) {
+            assertTrue(source.provide(buffer));
+            assertFrame(i, buffer);
+        }
+    }
+
+    // Frame i is i % 50 + 1 bytes long, all of them (byte) i
+    private static CachedFrames frames(int count) {
+        CachedFrames.Builder builder = new CachedFrames.Builder();
+        byte[] frame = new byte[64];
+        for (int i = 0; i < count; i++) {
+            Arrays.fill(frame, (byte) i);
+            builder.append(frame, i % 50 + 1);
+        }
+        return builder.build();
+    }
+
+    private static void assertFrame(int index, ByteBuffer buffer) {
+        assertEquals(index % 50 + 1, buffer.position());
+        for (int i = 0; i < buffer.position(); i++) {
+            assertEquals((byte) index, buffer.get(i));
+        }
+    }
+}
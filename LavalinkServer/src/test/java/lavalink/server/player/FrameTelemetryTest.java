@@ -0,0 +1,75 @@
+package lavalink.server.player;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameTelemetryTest {
+
+    private static final long FRAME = TimeUnit.MILLISECONDS.toNanos(20);
+
+    @Test
+    public void sumsCompletedSeconds() {
+        FrameTelemetry telemetry = new FrameTelemetry();
+        long nanos = FRAME;
+        for (int i = 0; i < 50; i++) {
+            telemetry.record(i % 10 != 0, true, true, nanos += FRAME, 100);
+        }
+        telemetry.record(true, true, true, nanos + FRAME, 101);
+
+        FrameTelemetry.Totals totals = telemetry.getLastSeconds(1, 101);
+        assertEquals(45, totals.getProvided());
+        assertEquals(5, totals.getNulled());
+        assertEquals(0, totals.getLate());
+
+        // The current second is still in progress
+        assertEquals(45, telemetry.getLastSeconds(2, 101).getProvided());
+    }
+
+    @Test
+    public void countsLateFrames() {
+        FrameTelemetry telemetry = new FrameTelemetry();
+        telemetry.record(true, true, true, FRAME, 100);
+        telemetry.record(true, true, true, FRAME * 2, 100);
+        telemetry.record(true, true, true, FRAME * 6, 100);
+        // Polling stopped altogether, that's not a late frame
+        telemetry.record(true, true, true, FRAME * 1000, 100);
+
+        assertEquals(1, telemetry.getLastSeconds(1, 101).getLate());
+    }
+
+    @Test
+    public void ignoresPausedPlayers() {
+        FrameTelemetry telemetry = new FrameTelemetry();
+        telemetry.record(false, false, false, FRAME, 100);
+        telemetry.record(false, false, false, FRAME * 2, 100);
+
+        assertEquals(0, telemetry.getLastSeconds(FrameTelemetry.WINDOW_SECONDS, 101).getNulled());
+    }
+
+    @Test
+    public void doesNotCountTheLoadingOfATrackAsNulled() {
+        FrameTelemetry telemetry = new FrameTelemetry();
+        telemetry.record(false, true, false, FRAME, 100);
+        telemetry.record(false, true, false, FRAME * 2, 100);
+        telemetry.record(true, true, false, FRAME * 3, 100);
+        telemetry.record(false, true, true, FRAME * 4, 100);
+
+        FrameTelemetry.Totals totals = telemetry.getLastSeconds(1, 101);
+        assertEquals(1, totals.getProvided());
+        assertEquals(1, totals.getNulled());
+    }
+
+    @Test
+    public void forgetsSecondsOutsideOfTheWindow() {
+        FrameTelemetry telemetry = new FrameTelemetry();
+        telemetry.record(true, true, true, FRAME, 100);
+        telemetry.record(true, true, true, FRAME * 2, 100 + FrameTelemetry.WINDOW_SECONDS);
+
+        FrameTelemetry.Totals totals = telemetry.getLastSeconds(FrameTelemetry.WINDOW_SECONDS,
+                101 + FrameTelemetry.WINDOW_SECONDS);
+        assertEquals(1, totals.getProvided());
+    }
+}
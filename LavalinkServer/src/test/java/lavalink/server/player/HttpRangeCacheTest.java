@@ -0,0 +1,197 @@
+package lavalink.server.player;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lavalink.server.config.CacheConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpRangeCacheTest {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final byte[] file = new byte[3 * HttpRangeCache.CHUNK_SIZE + 12345];
+    private final List<String> requestedRanges = Collections.synchronizedList(new ArrayList<>());
+    private HttpServer server;
+    private volatile String etag = "\"1\"";
+    private volatile boolean ignoresConditions = false;
+    private Path directory;
+    private HttpRangeCache cache;
+    private CloseableHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(42).nextBytes(file);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/audio.mp3", this::serve);
+        server.start();
+
+        CacheConfig config = new CacheConfig();
+        config.getHttpRanges().setEnabled(true);
+        directory = Files.createTempDirectory("http-cache");
+        config.getHttpRanges().setDirectory(directory.toString());
+        cache = new HttpRangeCache(config);
+        HttpClientBuilder builder = HttpClientBuilder.create();
+        cache.configure(builder);
+        client = builder.build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        cache.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void servesReplaysAndSeeksFromDisk() throws Exception {
+        assertArrayEquals(file, get(null));
+        awaitCachedEnd(0, file.length);
+
+        assertArrayEquals(slice(1500000, file.length), get("bytes=1500000-"));
+        assertArrayEquals(file, get(null));
+        assertEquals(Collections.singletonList("none"), requestedRanges);
+    }
+
+    @Test
+    public void writesChunksToDiskWhileTheyAreDownloaded() throws Exception {
+        HttpGet request = new HttpGet("http://127.0.0.1:" + server.getAddress().getPort() + "/audio.mp3");
+        try (CloseableHttpResponse response = client.execute(request)) {
+            InputStream in = response.getEntity().getContent();
+            byte[] read = new byte[500000];
+            int offset = 0;
+            while (offset < read.length) {
+                offset += in.read(read, offset, read.length - offset);
+            }
+
+            assertArrayEquals(slice(0, read.length), read);
+            try (Stream<Path> files = Files.list(directory)) {
+                Path temp = files.filter(file -> file.toString().endsWith(".tmp")).findFirst().orElse(null);
+                assertNotNull(temp);
+                assertEquals(read.length, Files.size(temp));
+            }
+            while (in.read(read) != -1) {
+                // Read to the end, so that the chunks are complete
+            }
+        }
+
+        awaitCachedEnd(0, file.length);
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.filter(file -> file.toString().endsWith(".tmp")).count());
+        }
+    }
+
+    @Test
+    public void downloadsTheUncachedRestOfARange() throws Exception {
+        int cached = 2 * HttpRangeCache.CHUNK_SIZE;
+        assertArrayEquals(slice(0, cached), get("bytes=0-" + (cached - 1)));
+        awaitCachedEnd(0, cached);
+
+        assertArrayEquals(slice(100, file.length), get("bytes=100-"));
+        assertEquals(Arrays.asList("bytes=0-" + (cached - 1), "bytes=" + cached + "-"), requestedRanges);
+    }
+
+    @Test
+    public void downloadsRangesAgainOnceTheFileChanged() throws Exception {
+        int cached = 2 * HttpRangeCache.CHUNK_SIZE;
+        assertArrayEquals(slice(0, cached), get("bytes=0-" + (cached - 1)));
+        awaitCachedEnd(0, cached);
+
+        new Random(43).nextBytes(file);
+        etag = "\"2\"";
+        assertArrayEquals(slice(100, file.length), get("bytes=100-"));
+        assertEquals(Arrays.asList("bytes=0-" + (cached - 1), "bytes=" + cached + "-", "bytes=100-"),
+                requestedRanges);
+    }
+
+    @Test
+    public void retriesRangesOfChangedFilesFromServersThatIgnoreConditions() throws Exception {
+        ignoresConditions = true;
+        int cached = 2 * HttpRangeCache.CHUNK_SIZE;
+        assertArrayEquals(slice(0, cached), get("bytes=0-" + (cached - 1)));
+        awaitCachedEnd(0, cached);
+
+        new Random(43).nextBytes(file);
+        etag = "\"2\"";
+        // Retried by the client on a new connection
+        assertArrayEquals(slice(100, file.length), get("bytes=100-"));
+        assertEquals(Arrays.asList("bytes=0-" + (cached - 1), "bytes=" + cached + "-", "bytes=100-"),
+                requestedRanges);
+    }
+
+    private byte[] get(String range) throws IOException {
+        HttpGet request = new HttpGet("http://127.0.0.1:" + server.getAddress().getPort() + "/audio.mp3");
+        if (range != null) request.setHeader("Range", range);
+        try (CloseableHttpResponse response = client.execute(request)) {
+            return EntityUtils.toByteArray(response.getEntity());
+        }
+    }
+
+    private void awaitCachedEnd(long position, long expected) throws InterruptedException {
+        String key = "http://127.0.0.1:" + server.getAddress().getPort() + "/audio.mp3";
+        for (int i = 0; i < 100; i++) {
+            HttpRangeCache.Resource resource = cache.getResource(key);
+            if (resource != null && cache.getCachedEnd(resource, position) >= expected) return;
+            Thread.sleep(50);
+        }
+        assertTrue("Chunks were not written", false);
+    }
+
+    private byte[] slice(int start, int end) {
+        return Arrays.copyOfRange(file, start, end);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        requestedRanges.add(range != null ? range : "none");
+        String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+        if (ifMatch != null && !ifMatch.equals(etag) && !ignoresConditions) {
+            exchange.sendResponseHeaders(412, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "audio/mpeg");
+        exchange.getResponseHeaders().set("ETag", etag);
+
+        int start = 0;
+        int end = file.length;
+        if (range != null) {
+            Matcher matcher = RANGE.matcher(range);
+            assertTrue(matcher.matches());
+            start = Integer.parseInt(matcher.group(1));
+            if (!matcher.group(2).isEmpty()) end = Integer.parseInt(matcher.group(2)) + 1;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + file.length);
+        }
+
+        exchange.sendResponseHeaders(range != null ? 206 : 200, end - start);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(file, start, end - start);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioReference;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import lavalink.server.config.AudioSourcesConfig;
+import lavalink.server.config.LocalIndexConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LocalTrackIndexTest {
+
+    private Path directory;
+    private File audio;
+    private File text;
+    private LocalTrackIndex index;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("local-index");
+        audio = directory.resolve("audio.wav").toFile();
+        text = directory.resolve("notes.txt").toFile();
+        Files.write(audio.toPath(), wav(48000));
+        Files.write(text.toPath(), String.join("", Collections.nCopies(100, "Not audio\n"))
+                .getBytes(StandardCharsets.UTF_8));
+
+        LocalIndexConfig config = new LocalIndexConfig();
+        config.setDirectories(Collections.singletonList(directory.toString()));
+        config.setRescanIntervalMs(0);
+        // Disabled so that the index is only scanned by the tests
+        AudioSourcesConfig sources = new AudioSourcesConfig();
+        sources.setLocal(false);
+        index = new LocalTrackIndex(config, sources);
+    }
+
+    @Test
+    public void indexesTheFilesOfItsDirectories() {
+        index.scan();
+
+        LocalTrackIndex.Entry entry = index.get(audio);
+        assertNotNull(entry);
+        assertNotNull(entry.info);
+        assertNotNull(entry.descriptor);
+        assertEquals(1000, entry.info.length);
+
+        // Remembered as not audio
+        entry = index.get(text);
+        assertNotNull(entry);
+        assertNull(entry.info);
+        assertNull(entry.descriptor);
+    }
+
+    @Test
+    public void loadsIndexedFilesWithoutProbingThem() throws IOException {
+        index.scan();
+        FileTime lastModified = Files.getLastModifiedTime(audio.toPath());
+        // Not a WAV file anymore, but of the same size and modification time
+        Files.write(audio.toPath(), new byte[(int) audio.length()]);
+        Files.setLastModifiedTime(audio.toPath(), lastModified);
+
+        AudioItem item = index.createSourceManager().loadItem(null, new AudioReference(audio.getPath(), null));
+        assertTrue(item instanceof AudioTrack);
+        assertEquals(1000, ((AudioTrack) item).getInfo().length);
+    }
+
+    @Test
+    public void probesFilesAgainOnceTheyChanged() throws IOException {
+        index.scan();
+        FileTime lastModified = Files.getLastModifiedTime(audio.toPath());
+
+        Files.write(audio.toPath(), wav(96000));
+        Files.setLastModifiedTime(audio.toPath(), lastModified);
+        // Changed size
+        assertNull(index.get(audio));
+
+        Files.write(audio.toPath(), wav(48000));
+        Files.setLastModifiedTime(audio.toPath(), FileTime.fromMillis(lastModified.toMillis() + 60_000));
+        // Changed modification time
+        assertNull(index.get(audio));
+
+        index.scan();
+        LocalTrackIndex.Entry entry = index.get(audio);
+        assertNotNull(entry);
+        assertNotNull(entry.info);
+    }
+
+    @Test
+    public void removesDeletedFiles() throws IOException {
+        index.scan();
+        FileTime lastModified = Files.getLastModifiedTime(audio.toPath());
+
+        Files.delete(audio.toPath());
+        index.scan();
+
+        // Restored exactly as it was, but no longer indexed
+        Files.write(audio.toPath(), wav(48000));
+        Files.setLastModifiedTime(audio.toPath(), lastModified);
+        assertNull(index.get(audio));
+        assertNotNull(index.get(text));
+    }
+
+    /**
+     * @return a WAV file of silent 16 bit mono samples at 48 kHz
+     */
+    private static byte[] wav(int samples) {
+        ByteBuffer buffer = ByteBuffer.allocate(44 + samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(36 + samples * 2)
+                .put("WAVE".getBytes(StandardCharsets.US_ASCII));
+        buffer.put("fmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16)
+                .putShort((short) 1) // PCM
+                .putShort((short) 1) // Channels
+                .putInt(48000) // Sample rate
+                .putInt(48000 * 2) // Byte rate
+                .putShort((short) 2) // Block align
+                .putShort((short) 16); // Bits per sample
+        buffer.put("data".getBytes(StandardCharsets.US_ASCII)).putInt(samples * 2);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,81 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.tools.io.SeekableInputStream;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedSeekableInputStreamTest {
+
+    @Test
+    public void readsAndSeeksLikeTheFile() throws IOException {
+        byte[] content = new byte[10000];
+        new Random(42).nextBytes(content);
+        File file = Files.createTempFile("mapped", ".mp3").toFile();
+        file.deleteOnExit();
+        Files.write(file.toPath(), content);
+
+        try (SeekableInputStream in = MappedSeekableInputStream.open(file)) {
+            assertEquals(content.length, in.getContentLength());
+            assertArrayEquals(Arrays.copyOfRange(content, 0, 100), read(in, 100));
+
+            in.seek(5000);
+            assertEquals(5000, in.getPosition());
+            assertArrayEquals(Arrays.copyOfRange(content, 5000, 5100), read(in, 100));
+
+            in.seek(10);
+            assertEquals(content[10] & 0xff, in.read());
+            assertEquals(100, in.skip(100));
+            assertArrayEquals(Arrays.copyOfRange(content, 111, content.length), read(in, content.length - 111));
+            assertEquals(-1, in.read());
+            assertEquals(-1, in.read(new byte[10], 0, 10));
+        }
+    }
+
+    @Test
+    public void releasesTheMappingWhenClosed() throws IOException {
+        File maps = new File("/proc/self/maps");
+        // Only Linux tells the mappings of a process
+        if (!maps.exists()) return;
+
+        File file = Files.createTempFile("mapped", ".mp3").toFile();
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[10000]);
+
+        SeekableInputStream in = MappedSeekableInputStream.open(file);
+        assertTrue(isMapped(maps, file));
+        in.close();
+        assertFalse(isMapped(maps, file));
+
+        try {
+            in.read();
+            fail("Read from a released mapping");
+        } catch (IOException expected) {
+            // Closed
+        }
+    }
+
+    private static boolean isMapped(File maps, File file) throws IOException {
+        return new String(Files.readAllBytes(maps.toPath()), StandardCharsets.UTF_8).contains(file.getAbsolutePath());
+    }
+
+    private static byte[] read(SeekableInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            offset += in.read(bytes, offset, length - offset);
+        }
+        return bytes;
+    }
+}
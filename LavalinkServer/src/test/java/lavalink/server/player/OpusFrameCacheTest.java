@@ -0,0 +1,145 @@
+package lavalink.server.player;
+
+import lavalink.server.config.CacheConfig;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OpusFrameCacheTest {
+
+    private static final byte[] FRAME = new byte[100];
+
+    @Test
+    public void recordsEachTrackOnce() {
+        OpusFrameCache cache = new OpusFrameCache(config(1024 * 1024, 1024 * 1024));
+
+        OpusFrameCache.Recorder recorder = cache.record("a", null);
+        assertNotNull(recorder);
+        assertNull(cache.record("a", null));
+
+        recorder.append(FRAME, FRAME.length);
+        recorder.complete();
+        assertNotNull(cache.get("a"));
+        // Already cached
+        assertNull(cache.record("a", null));
+    }
+
+    @Test
+    public void stopsRecordingsPastTheLimitOfAllRecordings() {
+        OpusFrameCache cache = new OpusFrameCache(config(1024 * 1024, 5 * (FRAME.length + 4)));
+        OpusFrameCache.Recorder first = cache.record("a", null);
+        OpusFrameCache.Recorder second = cache.record("b", null);
+
+        for (int i = 0; i < 3; i++) {
+            first.append(FRAME, FRAME.length);
+            second.append(FRAME, FRAME.length);
+        }
+        first.complete();
+        second.complete();
+
+        // The first recording got the remaining budget, the second one was stopped
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        // Ended recordings give their budget back
+        OpusFrameCache.Recorder third = cache.record("c", null);
+        for (int i = 0; i < 5; i++) {
+            third.append(FRAME, FRAME.length);
+        }
+        third.complete();
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void stopsRecordingsPastTheMemoryLimit() {
+        OpusFrameCache cache = new OpusFrameCache(config(2 * FRAME.length, 1024 * 1024));
+        OpusFrameCache.Recorder recorder = cache.record("a", null);
+
+        for (int i = 0; i < 3; i++) {
+            recorder.append(FRAME, FRAME.length);
+        }
+        recorder.complete();
+
+        assertNull(cache.get("a"));
+        // A new recording can be started once the previous one has ended
+        assertNotNull(cache.record("a", null));
+    }
+
+    @Test
+    public void loadsFramesFromDiskInTheBackground() throws IOException, InterruptedException {
+        CacheConfig config = config(3 * FRAME.length, 1024 * 1024);
+        Path directory = Files.createTempDirectory("opus-cache");
+        config.getOpusFrames().setDirectory(directory.toString());
+        OpusFrameCache cache = new OpusFrameCache(config);
+        record(cache, "a");
+        // Spills the frames of a to disk
+        record(cache, "b");
+        for (int i = 0; i < 100 && isEmpty(directory); i++) {
+            Thread.sleep(20);
+        }
+
+        // Played like a miss, while the frames are loaded for the next play
+        assertNull(cache.get("a"));
+        CachedFrames frames = null;
+        for (int i = 0; i < 100 && frames == null; i++) {
+            frames = cache.get("a");
+            Thread.sleep(20);
+        }
+        assertNotNull(frames);
+        cache.shutdown();
+    }
+
+    @Test
+    public void removesCorruptFramesFromDisk() throws IOException, InterruptedException {
+        CacheConfig config = config(3 * FRAME.length, 1024 * 1024);
+        Path directory = Files.createTempDirectory("opus-cache");
+        config.getOpusFrames().setDirectory(directory.toString());
+        OpusFrameCache cache = new OpusFrameCache(config);
+        record(cache, "a");
+        record(cache, "b");
+        for (int i = 0; i < 100 && isEmpty(directory); i++) {
+            Thread.sleep(20);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            // No frames, so there is no offset of their end
+            Files.write(files.findAny().get(), new byte[4]);
+        }
+
+        assertNull(cache.get("a"));
+        for (int i = 0; i < 100 && !isEmpty(directory); i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(isEmpty(directory));
+        // Recorded again rather than loaded from disk
+        assertNull(cache.get("a"));
+        assertNotNull(cache.record("a", null));
+        cache.shutdown();
+    }
+
+    private static boolean isEmpty(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return !files.findAny().isPresent();
+        }
+    }
+
+    private static void record(OpusFrameCache cache, String key) {
+        OpusFrameCache.Recorder recorder = cache.record(key, null);
+        recorder.append(FRAME, FRAME.length);
+        recorder.append(FRAME, FRAME.length);
+        recorder.complete();
+    }
+
+    private static CacheConfig config(long maxMemoryBytes, long maxRecordingBytes) {
+        CacheConfig config = new CacheConfig();
+        config.getOpusFrames().setEnabled(true);
+        config.getOpusFrames().setMaxMemoryBytes(maxMemoryBytes);
+        config.getOpusFrames().setMaxRecordingBytes(maxRecordingBytes);
+        return config;
+    }
+}
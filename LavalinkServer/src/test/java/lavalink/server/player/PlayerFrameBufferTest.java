@@ -0,0 +1,142 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.BaseAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioProcessingContext;
+import com.sedmelluq.discord.lavaplayer.track.playback.ImmutableAudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PlayerFrameBufferTest {
+
+    private static final byte[] SILENCE = {(byte) 0xf8, (byte) 0xff, (byte) 0xfe};
+    // Fewer than the frame buffer of the player holds, so that all of them are buffered up front
+    private static final int FRAMES = 200;
+
+    /**
+     * Frames are sent every 20ms for every playing player, so taking one from the audio player and handing it to the
+     * audio send thread must not allocate. The frames are buffered before they are measured, so that the thread of the
+     * track doesn't contend with the measured one.
+     */
+    @Test
+    public void sendsFramesWithoutAllocating() throws InterruptedException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        DefaultAudioPlayerManager manager = new DefaultAudioPlayerManager();
+        try {
+            AudioPlayer player = manager.createPlayer();
+            BufferedTrack track = new BufferedTrack();
+            player.playTrack(track);
+            assertTrue(track.buffered.await(5, TimeUnit.SECONDS));
+
+            PlayerFrameBuffer frameBuffer = new PlayerFrameBuffer();
+            FrameTelemetry telemetry = new FrameTelemetry();
+            sendFrames(player, frameBuffer, telemetry, 50);
+
+            long before = threads.getThreadAllocatedBytes(thread);
+            sendFrames(player, frameBuffer, telemetry, 100);
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+            assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void reusesTheBufferForFramesOfAnyLength() {
+        PlayerFrameBuffer frameBuffer = new PlayerFrameBuffer();
+        byte[] longer = new byte[100];
+        longer[99] = 1;
+
+        assertTrue(frameBuffer.provide(new ArrayFrameSource(SILENCE)));
+        assertArrayEquals(SILENCE, bytesOf(frameBuffer.take()));
+        assertTrue(frameBuffer.provide(new ArrayFrameSource(longer)));
+        assertArrayEquals(longer, bytesOf(frameBuffer.take()));
+        assertTrue(frameBuffer.provide(new ArrayFrameSource(SILENCE)));
+        assertArrayEquals(SILENCE, bytesOf(frameBuffer.take()));
+    }
+
+    private static void sendFrames(AudioPlayer player, PlayerFrameBuffer frameBuffer, FrameTelemetry telemetry,
+                                   int count) {
+        for (int i = 0; i < count; i++) {
+            // What Player.canProvide() and Player.provide20MsAudio() do for each frame
+            boolean provided = frameBuffer.provide(player);
+            telemetry.record(provided, true, true);
+            assertTrue(provided);
+            if (frameBuffer.take().remaining() != SILENCE.length) throw new AssertionError("Wrong frame length");
+        }
+    }
+
+    private static byte[] bytesOf(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static class BufferedTrack extends BaseAudioTrack {
+        private final CountDownLatch buffered = new CountDownLatch(1);
+
+        private BufferedTrack() {
+            super(new AudioTrackInfo("Buffered", "Test", FRAMES * 20, "buffered", false, null));
+        }
+
+        @Override
+        public void process(LocalAudioTrackExecutor executor) throws Exception {
+            AudioProcessingContext context = executor.getProcessingContext();
+            for (int i = 0; i < FRAMES; i++) {
+                context.frameBuffer.consume(new ImmutableAudioFrame(i * 20, SILENCE, 100, context.outputFormat));
+            }
+            buffered.countDown();
+        }
+    }
+
+    private static class ArrayFrameSource implements FrameSource {
+        private final byte[] frame;
+
+        private ArrayFrameSource(byte[] frame) {
+            this.frame = frame;
+        }
+
+        @Override
+        public AudioTrack getTrack() {
+            return null;
+        }
+
+        @Override
+        public long getPosition() {
+            return 0;
+        }
+
+        @Override
+        public void seekTo(long position) {
+        }
+
+        @Override
+        public boolean provide(ByteBuffer buffer) {
+            buffer.clear();
+            buffer.put(frame);
+            return true;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package lavalink.server.player;
+
+import com.sedmelluq.discord.lavaplayer.format.StandardAudioDataFormats;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioReference;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.BaseAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.AudioProcessingContext;
+import com.sedmelluq.discord.lavaplayer.track.playback.ImmutableAudioFrame;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+import lavalink.server.config.ServerConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SharedStreamHubTest {
+
+    private final DefaultAudioPlayerManager hubManager = new DefaultAudioPlayerManager();
+    private final LiveSourceManager hubSource = new LiveSourceManager();
+    private SharedStreamHub hub;
+    // Pulls a frame into the ring of a stream started by startStream()
+    private Runnable pump;
+
+    @Before
+    public void setUp() {
+        // Short enough that the stream stops right away if its upstream track stops producing frames
+        hubManager.setFrameBufferDuration(200);
+        hubManager.registerSourceManager(hubSource);
+        ServerConfig config = new ServerConfig();
+        config.setSharedStreams(true);
+        hub = new SharedStreamHub(hubManager, config);
+    }
+
+    @After
+    public void tearDown() {
+        hub.shutdown();
+        hubManager.shutdown();
+    }
+
+    @Test
+    public void keepsStreamingAfterTheManagerOfTheFirstSubscriberIsShutDown() throws InterruptedException {
+        DefaultAudioPlayerManager subscriberManager = new DefaultAudioPlayerManager();
+        LiveSourceManager subscriberSource = new LiveSourceManager();
+        subscriberManager.registerSourceManager(subscriberSource);
+        AudioTrack track = new LiveTrack(subscriberSource);
+
+        SharedStream.Subscription subscription = hub.subscribe(track, null);
+        assertNotNull(subscription);
+        ByteBuffer buffer = ByteBuffer.allocate(StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize());
+        assertTrue(awaitFrame(subscription, buffer));
+
+        subscriberManager.shutdown();
+        // Longer than the frame buffer and the ring of the stream can cover
+        Thread.sleep(1500);
+        while (subscription.provide(buffer)) {
+            // Skip the frames buffered before the shutdown
+        }
+
+        assertTrue(awaitFrame(subscription, buffer));
+        subscription.close();
+    }
+
+    @Test
+    public void startsSubscribersAFewFramesBehindTheLiveEdge() {
+        SharedStream stream = startStream();
+        SharedStream.Subscription early = stream.addSubscription(null, null);
+        pump(10);
+        SharedStream.Subscription late = stream.addSubscription(null, null);
+
+        assertEquals(0, nextFrame(early));
+        for (int i = 10 - SharedStream.JOIN_DELAY_FRAMES; i < 10; i++) {
+            assertEquals(i, nextFrame(late));
+        }
+        assertEquals(-1, nextFrame(late));
+    }
+
+    @Test
+    public void skipsToTheLiveEdgeAfterFallingBehindByMoreThanTheRing() {
+        SharedStream stream = startStream();
+        SharedStream.Subscription subscription = stream.addSubscription(null, null);
+
+        pump(SharedStream.RING_FRAMES);
+        // Still in the ring
+        assertEquals(0, nextFrame(subscription));
+
+        pump(SharedStream.RING_FRAMES);
+        int written = 2 * SharedStream.RING_FRAMES;
+        assertEquals(written - SharedStream.JOIN_DELAY_FRAMES, nextFrame(subscription));
+        assertEquals(written - SharedStream.JOIN_DELAY_FRAMES + 1, nextFrame(subscription));
+    }
+
+    @Test
+    public void stopsTheStreamOnceItsLastSubscriberLeaves() throws InterruptedException {
+        AudioTrack track = new LiveTrack(hubSource);
+        SharedStream.Subscription first = hub.subscribe(track, null);
+        SharedStream.Subscription second = hub.subscribe(track, null);
+        assertNotNull(first);
+        assertSame(first.getStream(), second.getStream());
+        ByteBuffer buffer = ByteBuffer.allocate(StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize());
+        assertTrue(awaitFrame(second, buffer));
+
+        first.close();
+        SharedStream.Subscription third = hub.subscribe(track, null);
+        // Still played for the second subscriber
+        assertSame(second.getStream(), third.getStream());
+        assertEquals(1, hubSource.stopped.getCount());
+
+        second.close();
+        third.close();
+        assertTrue(hubSource.stopped.await(5, TimeUnit.SECONDS));
+
+        SharedStream.Subscription fourth = hub.subscribe(track, null);
+        assertNotSame(first.getStream(), fourth.getStream());
+        fourth.close();
+    }
+
+    @Test
+    public void passesTheEventsOfTheUpstreamTrackToItsSubscribers() {
+        AudioTrack track = new LiveTrack(hubSource);
+        Player firstPlayer = mock(Player.class);
+        Player secondPlayer = mock(Player.class);
+        SharedStream.Subscription first = hub.subscribe(track, firstPlayer);
+        SharedStream.Subscription second = hub.subscribe(track, secondPlayer);
+        assertNotNull(first);
+        SharedStream stream = first.getStream();
+
+        FriendlyException exception = new FriendlyException("Failed", FriendlyException.Severity.SUSPICIOUS, null);
+        stream.onTrackException(null, track, exception);
+        verify(firstPlayer).onFrameSourceException(first, exception);
+        verify(secondPlayer).onFrameSourceException(second, exception);
+
+        stream.onTrackStuck(null, track, 1000);
+        verify(firstPlayer).onFrameSourceStuck(first, 1000);
+        verify(secondPlayer).onFrameSourceStuck(second, 1000);
+
+        stream.onTrackEnd(null, track, AudioTrackEndReason.FINISHED);
+        verify(firstPlayer).onFrameSourceEnd(first, AudioTrackEndReason.FINISHED);
+        verify(secondPlayer).onFrameSourceEnd(second, AudioTrackEndReason.FINISHED);
+
+        // An ended stream is started anew by the next subscriber
+        SharedStream.Subscription third = hub.subscribe(track, firstPlayer);
+        assertNotSame(stream, third.getStream());
+        third.close();
+    }
+
+    /**
+     * Starts a stream whose upstream player provides frames that hold their index, and which is only pumped by
+     * {@link #pump(int)}.
+     */
+    private SharedStream startStream() {
+        AudioPlayer upstream = mock(AudioPlayer.class);
+        AtomicInteger produced = new AtomicInteger();
+        when(upstream.provide(any(MutableAudioFrame.class))).thenAnswer(invocation -> {
+            byte[] data = ByteBuffer.allocate(4).putInt(produced.getAndIncrement()).array();
+            invocation.<MutableAudioFrame>getArgument(0).store(data, 0, data.length);
+            return true;
+        });
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+
+        SharedStream stream = new SharedStream(hub, "live:stream", upstream);
+        stream.start(mock(AudioTrack.class), executor);
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).scheduleAtFixedRate(captor.capture(), anyLong(), anyLong(), any(TimeUnit.class));
+        pump = captor.getValue();
+        return stream;
+    }
+
+    private void pump(int frames) {
+        for (int i = 0; i < frames; i++) {
+            pump.run();
+        }
+    }
+
+    /**
+     * @return the index of the next frame of the subscription, -1 if it has none
+     */
+    private static int nextFrame(SharedStream.Subscription subscription) {
+        ByteBuffer buffer = ByteBuffer.allocate(StandardAudioDataFormats.DISCORD_OPUS.maximumChunkSize());
+        if (!subscription.provide(buffer)) return -1;
+
+        buffer.flip();
+        return buffer.getInt();
+    }
+
+    private static boolean awaitFrame(SharedStream.Subscription subscription, ByteBuffer buffer)
+            throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (subscription.provide(buffer)) return true;
+            Thread.sleep(20);
+        }
+        return false;
+    }
+
+    /**
+     * Produces silent frames for as long as it isn't shut down, like a source whose http client is closed.
+     */
+    private static class LiveSourceManager implements AudioSourceManager {
+        private volatile boolean shutdown = false;
+        // Counted down once a track of the source stops being played
+        private final CountDownLatch stopped = new CountDownLatch(1);
+
+        @Override
+        public String getSourceName() {
+            return "live";
+        }
+
+        @Override
+        public AudioItem loadItem(DefaultAudioPlayerManager manager, AudioReference reference) {
+            return null;
+        }
+
+        @Override
+        public boolean isTrackEncodable(AudioTrack track) {
+            return true;
+        }
+
+        @Override
+        public void encodeTrack(AudioTrack track, DataOutput output) {
+        }
+
+        @Override
+        public AudioTrack decodeTrack(AudioTrackInfo trackInfo, DataInput input) {
+            return new LiveTrack(this);
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+    }
+
+    private static class LiveTrack extends BaseAudioTrack {
+        private static final byte[] SILENCE = {(byte) 0xf8, (byte) 0xff, (byte) 0xfe};
+
+        private final LiveSourceManager sourceManager;
+
+        private LiveTrack(LiveSourceManager sourceManager) {
+            super(new AudioTrackInfo("Live", "Test", Long.MAX_VALUE, "stream", true, null));
+            this.sourceManager = sourceManager;
+        }
+
+        @Override
+        public void process(LocalAudioTrackExecutor executor) throws Exception {
+            AudioProcessingContext context = executor.getProcessingContext();
+            try {
+                executor.executeProcessingLoop(() -> {
+                    long timecode = 0;
+                    while (!sourceManager.shutdown) {
+                        context.frameBuffer.consume(new ImmutableAudioFrame(timecode, SILENCE, 100,
+                                context.outputFormat));
+                        timecode += 20;
+                    }
+                    throw new IllegalStateException("The source manager of the track has been shut down");
+                }, null);
+            } finally {
+                sourceManager.stopped.countDown();
+            }
+        }
+
+        @Override
+        public AudioTrack makeClone() {
+            return new LiveTrack(sourceManager);
+        }
+
+        @Override
+        public AudioSourceManager getSourceManager() {
+            return sourceManager;
+        }
+    }
+}
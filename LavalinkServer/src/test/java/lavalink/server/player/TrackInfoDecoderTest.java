@@ -0,0 +1,37 @@
+package lavalink.server.player;
+
+import lavalink.server.player.TrackInfoDecoder.DecodedTrackInfo;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TrackInfoDecoderTest {
+
+    // Taken from IMPLEMENTATION.md
+    private static final String RICK_ROLL = "QAAAjQIAJVJpY2sgQXN0bGV5IC0gTmV2ZXIgR29ubmEgR2l2ZSBZb3UgVXAADlJpY2tBc3RsZXlWRVZPAAAAAAADPCAAC2RRdzR3OVdnWGNRAAEAK2h0dHBzOi8vd3d3LnlvdXR1YmUuY29tL3dhdGNoP3Y9ZFF3NHc5V2dYY1EAB3lvdXR1YmUAAAAAAAAAAA==";
+
+    @Test
+    public void decodesVersionedTrack() {
+        DecodedTrackInfo decoded = TrackInfoDecoder.decode(RICK_ROLL);
+
+        assertNotNull(decoded);
+        assertEquals("Rick Astley - Never Gonna Give You Up", decoded.info.title);
+        assertEquals("RickAstleyVEVO", decoded.info.author);
+        assertEquals(212000, decoded.info.length);
+        assertEquals("dQw4w9WgXcQ", decoded.info.identifier);
+        assertEquals("https://www.youtube.com/watch?v=dQw4w9WgXcQ", decoded.info.uri);
+        assertFalse(decoded.info.isStream);
+        assertTrue(decoded.isSeekable);
+        assertEquals(0, decoded.position);
+    }
+
+    @Test
+    public void truncatedTrackIsLeftToFullDecoder() {
+        assertNull(TrackInfoDecoder.decode(RICK_ROLL.substring(0, 40)));
+        assertNull(TrackInfoDecoder.decode(""));
+    }
+}
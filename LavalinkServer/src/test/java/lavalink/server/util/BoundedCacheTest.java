@@ -0,0 +1,57 @@
+package lavalink.server.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        BoundedCache<String, String> cache = new BoundedCache<>("test_lru", 2);
+        cache.put("a", "1", 60000);
+        cache.put("b", "2", 60000);
+
+        // Touch a, so that b becomes the eldest entry
+        assertEquals("1", cache.get("a"));
+        cache.put("c", "3", 60000);
+
+        assertEquals(2, cache.size());
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+
+    @Test
+    public void expiredEntriesAreMisses() throws InterruptedException {
+        BoundedCache<String, String> cache = new BoundedCache<>("test_ttl", 10);
+        cache.put("a", "1", 1);
+        Thread.sleep(5);
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void nonPositiveTtlIsNotCached() {
+        BoundedCache<String, String> cache = new BoundedCache<>("test_no_ttl", 10);
+        cache.put("a", "1", 60000);
+        cache.put("a", "2", 0);
+
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void invalidatesMatchingKeys() {
+        BoundedCache<String, String> cache = new BoundedCache<>("test_predicate", 10);
+        cache.put("a1", "1", 60000);
+        cache.put("b1", "2", 60000);
+        cache.put("a2", "3", 60000);
+
+        cache.invalidateIf(key -> key.startsWith("a"));
+
+        assertEquals(1, cache.size());
+        assertEquals("2", cache.get("b1"));
+    }
+}
@@ -0,0 +1,77 @@
+package lavalink.server.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedWheelSchedulerTest {
+
+    private final HashedWheelScheduler scheduler = new HashedWheelScheduler(5, TimeUnit.MILLISECONDS, 8, 1);
+
+    @After
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void runsTimeoutsLongerThanOneRotation() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+        scheduler.schedule(latch::countDown, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void cancelledTimeoutsDoNotRun() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        HashedWheelScheduler.Timeout timeout = scheduler.schedule(runs::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        Thread.sleep(100);
+
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void repeatsPeriodicTasksUntilCancelled() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(3);
+        HashedWheelScheduler.Timeout timeout = scheduler.scheduleAtFixedRate(latch::countDown, 0, 10,
+                TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(timeout.cancel());
+    }
+
+    @Test
+    public void expiredTimeoutsCannotBeCancelled() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        HashedWheelScheduler.Timeout timeout = scheduler.schedule(latch::countDown, 0, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    public void cancelsTimeoutsScheduledAfterShutdown() throws InterruptedException {
+        scheduler.shutdown();
+        AtomicInteger runs = new AtomicInteger();
+        HashedWheelScheduler.Timeout timeout = scheduler.schedule(runs::incrementAndGet, 0, TimeUnit.MILLISECONDS);
+        HashedWheelScheduler.Timeout periodic = scheduler.scheduleAtFixedRate(runs::incrementAndGet, 0, 10,
+                TimeUnit.MILLISECONDS);
+        Thread.sleep(50);
+
+        assertTrue(timeout.isCancelled());
+        assertTrue(periodic.isCancelled());
+        assertEquals(0, runs.get());
+    }
+}